@@ -7,9 +7,10 @@ import cn.jianchengwang.tl.poi.excel.reader.ReaderFactory;
 import lombok.Data;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
@@ -20,6 +21,8 @@ import static java.util.stream.Collectors.toList;
 @Data
 public class Reader<T> {
     private InputStream from; // 文件流
+    private File fromFile; // 文件，优先按文件随机访问读取
+    private int spillThreshold = 8 * 1024 * 1024; // xls/xlsx输入流超过该大小时先落地到临时文件再读取
     private GridSheet<T> gridSheet; // 表格配置信息，暂时只支持单表格读取
 
     private Stream<GridSheet<T>> gridSheetStream; // sheet数据流
@@ -27,6 +30,14 @@ public class Reader<T> {
 
     private boolean recordErrorMsg; // 不需要记录错误的话，则发生错误直接抛出异常中断读取操作
 
+    private boolean streaming; // 流式读取，asStream边解析边返回数据，不再先收集整个文件
+    private int streamingBufferSize = 1000; // 流式读取时解析线程和消费线程之间最多缓冲的行数
+    private int parallelism = 1; // 多sheet的xlsx、csv文件并行解析的线程数，1表示串行
+    private long skip; // 跳过前skip条数据行
+    private long limit = -1; // 最多读取的数据行数，读够后立即停止解析，-1表示不限制
+    private boolean sharedStringsOnDisk; // xlsx共享字符串表落地到内存映射的临时文件，适合唯一字符串特别多的大文件
+    private int sharedStringsCacheSize = 10000; // 共享字符串表落地时，堆中缓存的最近使用的字符串个数
+
     public Reader(GridSheet<T> gridSheet) {
         this.gridSheet = gridSheet;
     }
@@ -42,40 +53,77 @@ public class Reader<T> {
 
     public Reader from(InputStream form) {
         this.from = form;
+        this.fromFile = null;
         return this;
     }
     public Reader<T> from(File fromFile) {
-        try {
-            if (null == fromFile || !fromFile.exists()) {
-                throw E.illegalArgumentException("excel file must be exist");
-            }
-            this.from = new FileInputStream(fromFile);
-        } catch (Exception e) {
-            throw E.unexpected(e);
+        if (null == fromFile || !fromFile.exists()) {
+            throw E.illegalArgumentException("excel file must be exist");
         }
+        this.fromFile = fromFile;
+        this.from = null;
         return this;
     }
 
     public Stream<GridSheet<T>> asGridSheetStream() {
-        if (this.gridSheet == null) {
-            throw E.illegalArgumentException("gridSheet can be not null");
-        }
-
-        if (from == null) {
-            throw E.illegalArgumentException("Excel source not is null");
-        }
+        this.checkSource();
 
         ReaderFactory.readByStream(this);
         return this.gridSheetStream;
     }
+
+    /**
+     * streaming模式下返回的流由后台线程边解析边生产，必须close(例如try-with-resources)：
+     * 没有关闭时，解析线程以及它打开的源文件、临时文件要等到流被GC回收之后才会释放；
+     * 注意findFirst、anyMatch这类短路操作不会自动关闭流
+     */
     public Stream<T> asStream() {
-        this.stream = this.asGridSheetStream().flatMap(sheet -> sheet.data().stream());
+        if (this.streaming) {
+            this.checkSource();
+            // 不保存到reader上，reader继续被引用时没有关闭的流也能被回收
+            this.stream = null;
+            return ReaderFactory.readAsStream(this);
+        }
+        this.stream = null;
+        Stream<GridSheet<T>> gridSheets = this.asGridSheetStream();
+        if (this.stream != null) {
+            // csv按需解析，直接使用读取器给出的懒加载数据流
+            return this.stream;
+        }
+        this.stream = gridSheets.flatMap(sheet -> sheet.data() == null ? Stream.empty() : sheet.data().stream());
         return this.stream;
     }
     public List<T> asList() throws ReaderException {
         Stream<T> stream = this.asStream();
         return stream.collect(toList());
     }
+    /**
+     * 按固定大小的批次回调解析出的数据，适合边读边分批入库，内存占用只和批次大小有关
+     * 回调在解析线程中同步执行，回调处理完之前解析不会继续；批次list会被复用，需要保留数据时请在回调中自行复制
+     *
+     * @param batchSize     每批行数
+     * @param batchConsumer 批次回调
+     */
+    public void readInBatches(int batchSize, Consumer<List<T>> batchConsumer) {
+        if (batchSize < 1) {
+            throw E.illegalArgumentException("batchSize must be greater than 0");
+        }
+        this.checkSource();
+
+        List<T> batch = new ArrayList<>(batchSize);
+        ReaderFactory.readByStream(this, (T row) -> {
+            batch.add(row);
+            if (batch.size() == batchSize) {
+                batchConsumer.accept(batch);
+                batch.clear();
+            }
+        });
+        if (!batch.isEmpty()) {
+            batchConsumer.accept(batch);
+            batch.clear();
+        }
+    }
+
     public Reader stream(Stream<T> stream) {
         this.stream = stream;
         return this;
@@ -83,6 +131,14 @@ public class Reader<T> {
     public InputStream from() {
         return this.from;
     }
+    public File fromFile() {
+        return this.fromFile;
+    }
+
+    public Reader<T> spillThreshold(int spillThreshold) {
+        this.spillThreshold = spillThreshold;
+        return this;
+    }
     public GridSheet gridSheet() {
         return this.gridSheet;
     }
@@ -94,4 +150,82 @@ public class Reader<T> {
     public boolean recordErrorMsg() {
         return this.recordErrorMsg;
     }
+
+    public Reader<T> streaming(boolean streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+    public Reader<T> streaming(int streamingBufferSize) {
+        if (streamingBufferSize < 1) {
+            throw E.illegalArgumentException("streamingBufferSize must be greater than 0");
+        }
+        this.streaming = true;
+        this.streamingBufferSize = streamingBufferSize;
+        return this;
+    }
+    public boolean streaming() {
+        return this.streaming;
+    }
+
+    /**
+     * xlsx读取全部sheet时按sheet并行解析，返回的sheet顺序和文件中一致；
+     * csv文件(不是输入流)按记录边界切块并行解析，按文件顺序返回，同时最多有parallelism+1块(每块约4M)的数据在内存中，
+     * 比顺序读取多占用这部分内存，并且不支持skip/limit和行回调(这些情况仍然顺序读取)
+     * 自定义的转换器和校验器会被多个线程同时调用，需要是线程安全的
+     */
+    public Reader<T> parallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw E.illegalArgumentException("parallelism must be greater than 0");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * 跳过前n条数据行(表头不计入)，多个sheet时累计计算
+     */
+    public Reader<T> skip(long skip) {
+        if (skip < 0) {
+            throw E.illegalArgumentException("skip must not be negative");
+        }
+        this.skip = skip;
+        return this;
+    }
+
+    /**
+     * 最多读取n条数据行，读够后直接终止解析，适合大文件的预览；设置了skip/limit时按顺序解析，不再并行
+     */
+    public Reader<T> limit(long limit) {
+        if (limit < 0) {
+            throw E.illegalArgumentException("limit must not be negative");
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    public Reader<T> sharedStringsOnDisk(boolean sharedStringsOnDisk) {
+        this.sharedStringsOnDisk = sharedStringsOnDisk;
+        return this;
+    }
+    public Reader<T> sharedStringsOnDisk(int sharedStringsCacheSize) {
+        if (sharedStringsCacheSize < 1) {
+            throw E.illegalArgumentException("sharedStringsCacheSize must be greater than 0");
+        }
+        this.sharedStringsOnDisk = true;
+        this.sharedStringsCacheSize = sharedStringsCacheSize;
+        return this;
+    }
+    public boolean sharedStringsOnDisk() {
+        return this.sharedStringsOnDisk;
+    }
+
+    private void checkSource() {
+        if (this.gridSheet == null) {
+            throw E.illegalArgumentException("gridSheet can be not null");
+        }
+
+        if (from == null && fromFile == null) {
+            throw E.illegalArgumentException("Excel source not is null");
+        }
+    }
 }
@@ -3,22 +3,24 @@ package cn.jianchengwang.tl.poi.excel;
 import cn.jianchengwang.tl.common.E;
 import cn.jianchengwang.tl.common.S;
 import cn.jianchengwang.tl.poi.common.ResponseWrapper;
-import cn.jianchengwang.tl.poi.excel.annotation.ExcelColumn;
 import cn.jianchengwang.tl.poi.excel.enums.ExcelType;
+import cn.jianchengwang.tl.poi.excel.config.ExcelModel;
 import cn.jianchengwang.tl.poi.excel.config.GridSheet;
+import cn.jianchengwang.tl.poi.excel.config.PageFetcher;
 import cn.jianchengwang.tl.poi.excel.exception.WriterException;
 import cn.jianchengwang.tl.poi.excel.writer.*;
 import lombok.Data;
 import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.jxls.common.Context;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
-import java.lang.reflect.Field;
 import java.util.*;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
 
 /**
  * 参考biezhi:excel-plus
@@ -27,11 +29,15 @@ import java.util.stream.Collectors;
  * Created by wjc on 2019/9/5
  **/
 @Data
+@Slf4j
 public class Writer {
+
+    private static final String GZIP_SUFFIX = ".gz";
+
     private ExcelType excelType = ExcelType.XLSX; // 模板类型
 
     private Context context; // 模板上下文对象
-    private InputStream template; // 模板文件输入流
+    private JxlsTemplate template; // jxls模板，内容已读入内存
     private OutputStream out; // 输出流
     private String saveFileName; // 保存文件名字
 
@@ -39,6 +45,7 @@ public class Writer {
     private boolean enableAutoGroupBy; // 是否自动开启group by
     private List<GridSheet> gridSheetList; // sheetBuilder配置信息
     private String[] removeSheetNames; // 需要移除sheetName
+    private List<AutoCloseable> rowSources; // 流式数据源，写完后关闭(如数据库游标)
 
     private Consumer<Sheet> sheetConsumer;
     /**
@@ -46,6 +53,16 @@ public class Writer {
      */
     private int bufferSize = 100;
     private boolean withRaw;
+    private int parallelism = 1; // 并行转换行数据的线程数，1表示串行
+    private File tempDir; // SXSSF临时文件目录，默认java.io.tmpdir
+    private boolean compressTempFiles; // SXSSF临时文件是否gzip压缩
+    private long tempBytesWritten; // 最近一次写出时SXSSF写进临时文件的字节数
+    private boolean gzip; // csv输出是否gzip压缩
+    private boolean directXml; // xlsx不经过SXSSF，直接写SpreadsheetML
+    private int deflateLevel = Deflater.DEFAULT_COMPRESSION; // 直接写xlsx时zip的压缩级别
+    private int maxOpenGroupSheets = 16; // 分组写出时内存中保留行数据(打开临时文件)的分组sheet数量
+    private int templateRowWindow; // jxls模板流式渲染(SXSSF)时每个sheet内存中保留的行数，0表示整个workbook在内存中渲染
+    private int maxRowsPerSheet; // 每个sheet最多写出的数据行数，写满后续写到name_2、name_3...，0表示只受excel格式的行数限制
 
     public Writer(ExcelType excelType) {
         this.excelType = excelType;
@@ -60,10 +77,7 @@ public class Writer {
     }
 
     public Writer template(InputStream in) {
-        this.template = in;
-        this.excelType = ExcelType.valueOf(this.template);
-        this.context = new Context();
-        return this;
+        return this.template(JxlsTemplate.of(in));
     }
 
     public Writer template(String fullPath) {
@@ -71,11 +85,53 @@ public class Writer {
     }
 
     public Writer template(File templateFile) {
-        try {
-            return this.template(new FileInputStream(templateFile));
-        } catch (Exception e) {
-            throw E.unexpected(e);
+        return this.template(JxlsTemplate.of(templateFile));
+    }
+
+    /**
+     * 使用已读取或已注册的模板，反复渲染同一个模板时不再读取文件
+     */
+    public Writer template(JxlsTemplate template) {
+        this.template = template;
+        if (null != template.excelType()) {
+            this.excelType = template.excelType();
         }
+        this.context = new Context();
+        return this;
+    }
+
+    /**
+     * @param key {@link JxlsTemplate#register}时的id或内容的SHA-256
+     */
+    public Writer templateId(String key) {
+        JxlsTemplate template = JxlsTemplate.get(key);
+        if (null == template) {
+            throw E.invalidConfiguration("jxls template [{0}] is not registered", key);
+        }
+        return this.template(template);
+    }
+
+    /**
+     * xlsx模板流式渲染，输出写到SXSSF，每个sheet内存中只保留rowWindow行，适合jx:each、jx:grid数据量很大的模板；xls模板仍在内存中渲染
+     * <p>
+     * 可用：jx:area、jx:each(向下、multisheet)、jx:grid、jx:if这类只往下写的命令；数据区域下方的公式(如合计行)正常调整
+     * <p>
+     * 限制：
+     * 1. 带命令的sheet只输出jx:area区域内的单元格，区域外的单元格不会输出
+     * 2. 已经刷到磁盘的行不能再修改，公式单元格所在的行已刷出时保留模板中的公式不调整，
+     *    数据区域上方的合计请用整列引用(如SUM(C:C))；jx:mergeCells、jx:updateCell、jx:image、jx:autoRowHeight只作用在窗口内的行
+     *
+     * @param rowWindow 每个sheet内存中保留的行数，0表示不流式渲染
+     */
+    public Writer streamingTemplate(int rowWindow) {
+        if (rowWindow < 0) {
+            throw E.illegalArgumentException("rowWindow must not be negative");
+        }
+        this.templateRowWindow = rowWindow;
+        return this;
+    }
+    public int templateRowWindow() {
+        return this.templateRowWindow;
     }
 
     public void out(File outFile) {
@@ -105,8 +161,16 @@ public class Writer {
 
     public Writer saveFileName(String fileName) {
         String suffix = fileName.substring(fileName.lastIndexOf("."));
-        if(S.isNotEmpty(suffix) && !suffix.equalsIgnoreCase(this.excelType.getValue())) {
-            fileName = fileName.substring(0, fileName.lastIndexOf(".")) + this.excelType.getValue();
+        String expectSuffix = this.excelType.getValue();
+        // gzip压缩的csv保留.csv.gz后缀
+        if(this.gzip && this.excelType == ExcelType.CSV && fileName.toLowerCase().endsWith(expectSuffix + GZIP_SUFFIX)) {
+            suffix = expectSuffix;
+        }
+        if(S.isNotEmpty(suffix) && !suffix.equalsIgnoreCase(expectSuffix)) {
+            fileName = fileName.substring(0, fileName.lastIndexOf(".")) + expectSuffix;
+        }
+        if(this.gzip && this.excelType == ExcelType.CSV && !fileName.toLowerCase().endsWith(GZIP_SUFFIX)) {
+            fileName = fileName + GZIP_SUFFIX;
         }
         this.saveFileName = fileName;
         return this;
@@ -126,56 +190,97 @@ public class Writer {
     }
     public Writer addSheetBuilder(@NonNull Class<?> clazz, @NonNull List<?> items) {
 
-        final Field[] groupFiled = new Field[1];
-        boolean needGroupBy = this.enableAutoGroupBy && Arrays.stream(clazz.getDeclaredFields()).anyMatch(field -> {
-            ExcelColumn column = field.getAnnotation(ExcelColumn.class);
-            if (null != column) {
-                field.setAccessible(true);
-                if(column.groupBy()) {
-                    groupFiled[0] = field;
-                    return true;
-                }
-            }
-            return false;
-        });
+        boolean needGroupBy = this.enableAutoGroupBy && null != ExcelModel.of(clazz).groupByColumn();
 
-        // 如果需要，则要分成多个sheet展示
+        // 如果需要，则要分成多个sheet展示，写出时只遍历一遍数据，按分组值路由到各自的sheet
         if(needGroupBy) {
             isMultiGrid = true;
-            Map<String, List<Object>> mapList = items.stream().collect(Collectors.groupingBy(item -> {
-                try {
-                    return groupFiled[0].get(item).toString();
-                } catch (IllegalAccessException e) {
-                    throw E.unexpected(e);
-                }
-            }));
-
-            final GridSheet[] gridSheetList = new GridSheet[1];
-            mapList.forEach((k, v) -> {
-                if(gridSheetList[0] == null) {
-                    gridSheetList[0] = new GridSheet(clazz, v);
-                    gridSheetList[0].setSheetIndex(0);
-                    gridSheetList[0].setSheetName(k);
-                    addSheetBuilder(gridSheetList[0]);
-                } else {
-                    GridSheet gridSheet = GridSheet.build()
-                            .clazz(gridSheetList[0].clazz())
-                            .sheetName(k)
-                            .headers(gridSheetList[0].headers())
-                            .props(gridSheetList[0].props())
-                            .data(v);
-                    addSheetBuilder(gridSheet);
-                }
-            });
+        }
+        // sheet名称沿用字段的toString，和以前一致(模板中可能引用了这些sheet名称)
+        GridSheet gridSheet = new GridSheet(clazz, items).groupBy(needGroupBy).groupByToString(needGroupBy);
+        return addSheetBuilder(gridSheet);
+    }
+
+    /**
+     * 流式写出，数据边取边写，不需要先把全部数据放进内存；写完后关闭stream
+     * 需要按字段分sheet时使用addGroupedSheets
+     */
+    public <T> Writer addSheet(@NonNull Class<T> clazz, @NonNull Stream<T> rows) {
+        return addSheet(Const.DEFAULT_SHEET_NAME, clazz, rows);
+    }
+    public <T> Writer addSheet(@NonNull String sheetName, @NonNull Class<T> clazz, @NonNull Stream<T> rows) {
+        if(this.rowSources == null) this.rowSources = new ArrayList<>();
+        this.rowSources.add(rows);
+        return addSheet(sheetName, clazz, rows.iterator());
+    }
 
-            return this;
+    public <T> Writer addSheet(@NonNull Class<T> clazz, @NonNull Iterator<T> rows) {
+        return addSheet(Const.DEFAULT_SHEET_NAME, clazz, rows);
+    }
+    public <T> Writer addSheet(@NonNull String sheetName, @NonNull Class<T> clazz, @NonNull Iterator<T> rows) {
+        GridSheet gridSheet = new GridSheet(clazz, null)
+                .sheetName(sheetName)
+                .rowIterator(rows);
+        return addSheetBuilder(gridSheet);
+    }
+
+    /**
+     * 分页写出，每次取pageSize条，取到空页或者不满一页为止
+     */
+    public <T> Writer addSheet(@NonNull Class<T> clazz, int pageSize, @NonNull PageFetcher<T> pageFetcher) {
+        return addSheet(Const.DEFAULT_SHEET_NAME, clazz, pageSize, pageFetcher);
+    }
+    public <T> Writer addSheet(@NonNull String sheetName, @NonNull Class<T> clazz, int pageSize, @NonNull PageFetcher<T> pageFetcher) {
+        return addSheet(sheetName, clazz, pageFetcher.iterator(pageSize));
+    }
 
-        } else {
-            GridSheet gridSheet = new GridSheet(clazz, items);
-            return addSheetBuilder(gridSheet);
+    /**
+     * 按@ExcelColumn(groupBy = true)的字段分sheet流式写出，每个分组值一个sheet，数据只遍历一遍；写完后关闭stream
+     *
+     * @param sorted 数据已经按分组字段排序，分组切换时直接把上一个分组的行刷到磁盘
+     */
+    public <T> Writer addGroupedSheets(@NonNull Class<T> clazz, @NonNull Stream<T> rows) {
+        return addGroupedSheets(clazz, rows, false);
+    }
+    public <T> Writer addGroupedSheets(@NonNull Class<T> clazz, @NonNull Stream<T> rows, boolean sorted) {
+        if(this.rowSources == null) this.rowSources = new ArrayList<>();
+        this.rowSources.add(rows);
+        return addGroupedSheets(clazz, rows.iterator(), sorted);
+    }
+    public <T> Writer addGroupedSheets(@NonNull Class<T> clazz, @NonNull Iterator<T> rows) {
+        return addGroupedSheets(clazz, rows, false);
+    }
+    public <T> Writer addGroupedSheets(@NonNull Class<T> clazz, @NonNull Iterator<T> rows, boolean sorted) {
+        if (null == ExcelModel.of(clazz).groupByColumn()) {
+            throw E.illegalArgumentException("{0} has no @ExcelColumn(groupBy = true) field", clazz.getName());
         }
+        this.isMultiGrid = true;
+        GridSheet gridSheet = new GridSheet(clazz, null)
+                .rowIterator(rows)
+                .groupBy(true)
+                .groupSorted(sorted);
+        return addSheetBuilder(gridSheet);
     }
 
+    /**
+     * 分组写出时内存中保留行数据的分组sheet数量，超过时把最久没有写入的分组sheet刷到临时文件并关闭它的文件句柄，只对xlsx有效；
+     * 同时打开的临时文件数不超过这个值，但每个分组仍然有自己的sheet和临时文件(磁盘上)，直到写出
+     */
+    public Writer maxOpenGroupSheets(int maxOpenGroupSheets) {
+        if (maxOpenGroupSheets < 1) {
+            throw E.illegalArgumentException("maxOpenGroupSheets must be greater than 0");
+        }
+        this.maxOpenGroupSheets = maxOpenGroupSheets;
+        return this;
+    }
+    public int maxOpenGroupSheets() {
+        return this.maxOpenGroupSheets;
+    }
+
+    /**
+     * addSheetBuilder(Class, List)时按@ExcelColumn(groupBy = true)的字段分sheet，sheet名称为字段的toString，字段为null时报错；
+     * addGroupedSheets的sheet名称则是单元格写出的文本
+     */
     public Writer enableAutoGroupBy(boolean enableAutoGroupBy) {
         this.enableAutoGroupBy = enableAutoGroupBy;
         return this;
@@ -220,6 +325,102 @@ public class Writer {
         return this.bufferSize;
     }
 
+    /**
+     * 多个线程按批并行把实体转换成单元格值(取值、转换器、格式化)，sheet仍然由调用线程按顺序写入
+     * 自定义的转换器会被多个线程同时调用，需要是线程安全的
+     */
+    public Writer parallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw E.illegalArgumentException("parallelism must be greater than 0");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+    public int parallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * csv输出gzip压缩，文件名建议以.csv.gz结尾
+     */
+    public Writer gzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+    public boolean gzip() {
+        return this.gzip;
+    }
+
+    /**
+     * xlsx写出时SXSSF刷出的行先写到临时文件，默认在java.io.tmpdir，写完后删除
+     */
+    public Writer tempDir(File tempDir) {
+        this.tempDir = tempDir;
+        return this;
+    }
+    public File tempDir() {
+        return this.tempDir;
+    }
+
+    /**
+     * SXSSF临时文件gzip压缩，临时文件通常能小一个数量级，代价是压缩的CPU开销
+     */
+    public Writer compressTempFiles(boolean compressTempFiles) {
+        this.compressTempFiles = compressTempFiles;
+        return this;
+    }
+    public boolean compressTempFiles() {
+        return this.compressTempFiles;
+    }
+
+    /**
+     * 最近一次写出时写进临时文件的字节数(压缩时为压缩后的大小)，用于监控临时目录的占用
+     */
+    public long tempBytesWritten() {
+        return this.tempBytesWritten;
+    }
+    public Writer tempBytesWritten(long tempBytesWritten) {
+        this.tempBytesWritten = tempBytesWritten;
+        return this;
+    }
+
+    /**
+     * xlsx直接把sheet的xml写进zip，不创建POI的row/cell对象，也不写临时文件
+     * 附加信息、多行表头、自定义样式和witchRaw依赖POI对象，有这些配置时仍然使用SXSSF；批注不写出
+     */
+    public Writer directXml(boolean directXml) {
+        this.directXml = directXml;
+        return this;
+    }
+    public boolean directXml() {
+        return this.directXml;
+    }
+
+    /**
+     * 直接写xlsx时zip的压缩级别，0-9，越小越快文件越大，-1为默认级别
+     */
+    public Writer deflateLevel(int deflateLevel) {
+        if (deflateLevel < Deflater.DEFAULT_COMPRESSION || deflateLevel > Deflater.BEST_COMPRESSION) {
+            throw E.illegalArgumentException("deflateLevel must be between -1 and 9");
+        }
+        this.deflateLevel = deflateLevel;
+        return this;
+    }
+    public int deflateLevel() {
+        return this.deflateLevel;
+    }
+
+    public Writer maxRowsPerSheet(int maxRowsPerSheet) {
+        if (maxRowsPerSheet < 0) {
+            throw E.illegalArgumentException("maxRowsPerSheet must not be negative");
+        }
+        this.maxRowsPerSheet = maxRowsPerSheet;
+        return this;
+    }
+    public int maxRowsPerSheet() {
+        return this.maxRowsPerSheet;
+    }
+
     public Consumer<Sheet> sheetConsumer() {
         return sheetConsumer;
     }
@@ -231,16 +432,66 @@ public class Writer {
         return this.withRaw;
     }
 
+    /**
+     * jxls模板需要每个分组的数据列表，渲染前把分组写出的GridSheet展开成每个分组值一个GridSheet
+     */
+    private void expandGroupedSheets() {
+        if (null == gridSheetList || gridSheetList.stream().noneMatch(GridSheet::groupBy)) {
+            return;
+        }
+        List<GridSheet> expanded = new ArrayList<>();
+        for (GridSheet gridSheet : gridSheetList) {
+            if (!gridSheet.groupBy()) {
+                expanded.add(gridSheet);
+                continue;
+            }
+            RowPlan rowPlan = RowPlan.of(gridSheet.clazz());
+            Map<String, List<Object>> groups = new LinkedHashMap<>();
+            Iterator<?> rows = gridSheet.rows();
+            while (rows.hasNext()) {
+                Object row = rows.next();
+                groups.computeIfAbsent(rowPlan.groupKey(row, gridSheet.groupByToString()), key -> new ArrayList<>()).add(row);
+            }
+            groups.forEach((key, data) -> expanded.add(GridSheet.build()
+                    .clazz(gridSheet.clazz())
+                    .sheetName(key)
+                    .headers(gridSheet.headers())
+                    .props(gridSheet.props())
+                    .data(data)));
+        }
+        this.gridSheetList = expanded;
+    }
+
     private void write() throws WriterException {
-        if(template != null) {
-            new JxlsBuilder(this).build();
-        } else if(excelType.equals(ExcelType.CSV)) {
-            new WriterWithCSV(this.getOut()).writeSheet(this);
-        }  if (excelType == ExcelType.XLSX) {
-            new WriterWith2007(this.getOut()).writeSheet(this);
+        try {
+            if(template != null) {
+                this.expandGroupedSheets();
+                new JxlsBuilder(this).build();
+            } else if(excelType.equals(ExcelType.CSV)) {
+                new WriterWithCSV(this.getOut()).writeSheet(this);
+            } else if (excelType == ExcelType.XLSX) {
+                if (this.directXml && WriterWithSpreadsheetML.supports(this)) {
+                    new WriterWithSpreadsheetML(this.getOut()).writeSheet(this);
+                } else {
+                    new WriterWith2007(this.getOut()).writeSheet(this);
+                }
+            } else if (excelType == ExcelType.XLS) {
+                new WriterWith2003(this.getOut()).writeSheet(this);
+            }
+        } finally {
+            this.closeRowSources();
         }
-        if (excelType == ExcelType.XLS) {
-            new WriterWith2003(this.getOut()).writeSheet(this);
+    }
+
+    private void closeRowSources() {
+        if(this.rowSources == null) return;
+        for (AutoCloseable rowSource : this.rowSources) {
+            try {
+                rowSource.close();
+            } catch (Exception e) {
+                log.warn("close row source fail", e);
+            }
         }
+        this.rowSources = null;
     }
 }
@@ -0,0 +1,256 @@
+package cn.jianchengwang.tl.poi.excel.config;
+
+import cn.jianchengwang.tl.common.E;
+import cn.jianchengwang.tl.common.S;
+import cn.jianchengwang.tl.poi.excel.annotation.ExcelColumn;
+import cn.jianchengwang.tl.poi.excel.converter.Converter;
+import cn.jianchengwang.tl.poi.excel.converter.ConverterCache;
+import cn.jianchengwang.tl.poi.excel.converter.NullConverter;
+import cn.jianchengwang.tl.poi.excel.validator.Validator;
+import cn.jianchengwang.tl.poi.excel.validator.ValidatorCache;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * @ExcelColumn实体类的元数据
+ * 字段、注解、getter/setter、转换器、校验器只在第一次使用时解析，按类保存在ClassValue中，所有reader、writer共用；
+ * 构造完成后不可变，可以被并发的导入导出同时使用，类被卸载时随之回收
+ */
+public final class ExcelModel<T> {
+
+    private static final ClassValue<ExcelModel<?>> REGISTRY = new ClassValue<ExcelModel<?>>() {
+        @Override
+        protected ExcelModel<?> computeValue(Class<?> type) {
+            return new ExcelModel<>(type);
+        }
+    };
+
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Class<T> clazz;
+    private final MethodHandle constructor; // 无参构造器，没有时为null
+    private final List<Column> columns; // 按字段声明顺序
+    private final List<Column> sortedColumns; // 按列索引排序
+    private final List<String> headers; // 按列索引排序的表头
+    private final List<String> props; // 按列索引排序的属性名
+    private final Column groupByColumn; // groupBy=true的字段，没有时为null
+
+    @SuppressWarnings("unchecked")
+    public static <T> ExcelModel<T> of(Class<T> clazz) {
+        return (ExcelModel<T>) REGISTRY.get(clazz);
+    }
+
+    private ExcelModel(Class<T> clazz) {
+        this.clazz = clazz;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            this.constructor = compileConstructor(lookup, clazz);
+
+            List<Column> columnList = new ArrayList<>();
+            Column groupBy = null;
+            for (Field field : clazz.getDeclaredFields()) {
+                ExcelColumn column = field.getAnnotation(ExcelColumn.class);
+                if (null == column || Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                Column c = new Column(column, field,
+                        lookup.unreflectGetter(field).asType(GETTER_TYPE),
+                        compileSetter(lookup, field),
+                        computeConverter(column, field),
+                        computeValidator(column));
+                columnList.add(c);
+                if (null == groupBy && column.groupBy()) {
+                    groupBy = c;
+                }
+            }
+            List<Column> sortedList = new ArrayList<>(columnList);
+            sortedList.sort(Comparator.comparingInt(Column::index));
+
+            List<String> headerList = new ArrayList<>(sortedList.size());
+            List<String> propList = new ArrayList<>(sortedList.size());
+            for (Column c : sortedList) {
+                headerList.add(c.header());
+                propList.add(c.prop());
+            }
+
+            this.columns = Collections.unmodifiableList(columnList);
+            this.sortedColumns = Collections.unmodifiableList(sortedList);
+            this.headers = Collections.unmodifiableList(headerList);
+            this.props = Collections.unmodifiableList(propList);
+            this.groupByColumn = groupBy;
+        } catch (Exception e) {
+            throw E.invalidConfiguration(e);
+        }
+    }
+
+    private static MethodHandle compileConstructor(MethodHandles.Lookup lookup, Class<?> clazz) throws IllegalAccessException {
+        try {
+            Constructor<?> constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return lookup.unreflectConstructor(constructor).asType(CONSTRUCTOR_TYPE);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * final字段只能导出不能导入，setter为null，读取时才报错
+     */
+    private static MethodHandle compileSetter(MethodHandles.Lookup lookup, Field field) {
+        try {
+            return lookup.unreflectSetter(field).asType(SETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 自定义转换器按类型共用一个实例，其余按字段类型取默认转换器
+     */
+    private static Converter computeConverter(ExcelColumn column, Field field) throws Exception {
+        if (!NullConverter.class.equals(column.converter())) {
+            return ConverterCache.getOrCreate(column.converter());
+        }
+        return ConverterCache.computeConvert(field);
+    }
+
+    private static Validator computeValidator(ExcelColumn column) {
+        if (column.validator() == null || ExcelColumn.Void.class.equals(column.validator())) {
+            return null;
+        }
+        return ValidatorCache.getOrCreate(column.validator());
+    }
+
+    public Class<T> clazz() {
+        return this.clazz;
+    }
+
+    /**
+     * @return 无参构造器，没有时为null
+     */
+    public MethodHandle constructor() {
+        return this.constructor;
+    }
+
+    /**
+     * 按字段声明顺序
+     */
+    public List<Column> columns() {
+        return this.columns;
+    }
+
+    /**
+     * 按列索引排序
+     */
+    public List<Column> sortedColumns() {
+        return this.sortedColumns;
+    }
+
+    public List<String> headers() {
+        return this.headers;
+    }
+
+    public List<String> props() {
+        return this.props;
+    }
+
+    /**
+     * @return groupBy=true的字段，没有时为null
+     */
+    public Column groupByColumn() {
+        return this.groupByColumn;
+    }
+
+    /**
+     * 一个@ExcelColumn字段
+     */
+    public static final class Column {
+        private final ExcelColumn annotation;
+        private final Field field;
+        private final int index;
+        private final String prop;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+        private final Converter converter;
+        private final Validator validator;
+
+        Column(ExcelColumn annotation, Field field, MethodHandle getter, MethodHandle setter,
+               Converter converter, Validator validator) {
+            this.annotation = annotation;
+            this.field = field;
+            this.index = annotation.index();
+            this.prop = S.isNotEmpty(annotation.prop()) ? annotation.prop() : field.getName();
+            this.getter = getter;
+            this.setter = setter;
+            this.converter = converter;
+            this.validator = validator;
+        }
+
+        public ExcelColumn annotation() {
+            return annotation;
+        }
+
+        public Field field() {
+            return field;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        public String header() {
+            return annotation.header();
+        }
+
+        public String prop() {
+            return prop;
+        }
+
+        /**
+         * @return (Object)Object
+         */
+        public MethodHandle getter() {
+            return getter;
+        }
+
+        /**
+         * @return (Object, Object)void，final字段为null
+         */
+        public MethodHandle setter() {
+            return setter;
+        }
+
+        /**
+         * @return 自定义转换器或按字段类型的默认转换器，没有时为null
+         */
+        public Converter converter() {
+            return converter;
+        }
+
+        public Validator validator() {
+            return validator;
+        }
+
+        public Object get(Object instance) {
+            try {
+                return (Object) getter.invokeExact(instance);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw E.unexpected(e);
+            }
+        }
+    }
+}
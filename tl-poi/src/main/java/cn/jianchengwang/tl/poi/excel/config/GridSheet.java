@@ -1,15 +1,13 @@
 package cn.jianchengwang.tl.poi.excel.config;
 
-import cn.jianchengwang.tl.common.S;
 import cn.jianchengwang.tl.poi.excel.Const;
-import cn.jianchengwang.tl.poi.excel.annotation.ExcelColumn;
 import cn.jianchengwang.tl.poi.excel.config.extrainfo.ExtraInfo;
 import cn.jianchengwang.tl.poi.excel.config.style.StyleConfig;
 import lombok.*;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -41,6 +39,18 @@ public class GridSheet<T> {
     private @Getter
     @Setter
     List<T> data; // 列表数据
+    private @Getter
+    @Setter
+    Iterator<T> rowIterator; // 流式数据源，写出时边取边写，和data二选一，只能遍历一次
+    private @Getter
+    @Setter
+    boolean groupBy; // 按@ExcelColumn(groupBy = true)的字段分sheet写出，每个分组值一个sheet
+    private @Getter
+    @Setter
+    boolean groupSorted; // 数据已经按分组字段排序，分组切换后不会再出现
+    private @Getter
+    @Setter
+    boolean groupByToString; // 分组值(sheet名称)使用字段的toString，而不是单元格写出的文本，enableAutoGroupBy一直以来的行为
     // 读取grid用到
     private  @Getter
     @Setter
@@ -63,6 +73,10 @@ public class GridSheet<T> {
                 gridSheet.getProps(),
                 gridSheet.getTotalRow(),
                 gridSheet.getData(),
+                gridSheet.getRowIterator(),
+                gridSheet.isGroupBy(),
+                gridSheet.isGroupSorted(),
+                gridSheet.isGroupByToString(),
                 gridSheet.getStartRow(),
                 gridSheet.getHeadLineRow(),
                 gridSheet.getStyleConfig());
@@ -77,30 +91,11 @@ public class GridSheet<T> {
     public GridSheet(Class<T> clazz, List<T> items) {
         this(items);
 
-        List<GridColumn> gridList = new ArrayList<>();
         this.clazz = clazz;
-        Field[] fields = clazz.getDeclaredFields();
-        Arrays.stream(fields).forEach(field -> {
-            ExcelColumn excelColumn = field.getAnnotation(ExcelColumn.class);
-            if (null != excelColumn) {
-                field.setAccessible(true);
-
-                GridColumn gridColumn = GridColumn.builder()
-                        .header(excelColumn.header())
-                        .prop(S.isNotEmpty(excelColumn.prop())?excelColumn.prop():field.getName())
-                        .index(excelColumn.index()).build();
-                gridList.add(gridColumn);
-            }
-        });
-
-        if(!gridList.isEmpty()) {
-            if(this.headers == null) this.headers = new ArrayList<>();
-            if(this.props == null) this.props = new ArrayList<>();
-            gridList.sort((a, b) -> a.getIndex().compareTo(b.getIndex()));
-            gridList.forEach(grid -> {
-                this.headers.add(grid.getHeader());
-                this.props.add(grid.getProp());
-            });
+        ExcelModel<T> model = ExcelModel.of(clazz);
+        if(!model.headers().isEmpty()) {
+            this.headers = new ArrayList<>(model.headers());
+            this.props = new ArrayList<>(model.props());
         }
 
         this.calTotalRow();
@@ -162,8 +157,13 @@ public class GridSheet<T> {
     public Long totalRow() {
         return totalRow;
     }
+    /**
+     * 流式数据源在写出之前不知道总数，写出后由writer回填
+     */
     public void calTotalRow() {
-        this.totalRow = data.size();
+        if (null != data) {
+            this.totalRow = data.size();
+        }
     }
 
     public GridSheet data(List<T> data) {
@@ -174,6 +174,48 @@ public class GridSheet<T> {
         return this.data;
     }
 
+    public GridSheet rowIterator(Iterator<T> rowIterator) {
+        this.rowIterator = rowIterator;
+        return this;
+    }
+    public Iterator<T> rowIterator() {
+        return this.rowIterator;
+    }
+
+    public GridSheet groupBy(boolean groupBy) {
+        this.groupBy = groupBy;
+        return this;
+    }
+    public boolean groupBy() {
+        return this.groupBy;
+    }
+
+    public GridSheet groupSorted(boolean groupSorted) {
+        this.groupSorted = groupSorted;
+        return this;
+    }
+    public boolean groupSorted() {
+        return this.groupSorted;
+    }
+
+    public GridSheet groupByToString(boolean groupByToString) {
+        this.groupByToString = groupByToString;
+        return this;
+    }
+    public boolean groupByToString() {
+        return this.groupByToString;
+    }
+
+    /**
+     * 写出的行：优先使用data，否则使用流式数据源
+     */
+    public Iterator<T> rows() {
+        if (null != data) {
+            return data.iterator();
+        }
+        return null != rowIterator ? rowIterator : Collections.emptyIterator();
+    }
+
     public Integer startRow() {
         return this.startRow;
     }
@@ -0,0 +1,65 @@
+package cn.jianchengwang.tl.poi.excel.config;
+
+import cn.jianchengwang.tl.common.E;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 分页取数回调，写出时按页向数据库取数据，取一页写一页，内存中只保留当前页
+ */
+@FunctionalInterface
+public interface PageFetcher<T> {
+
+    /**
+     * 取第pageNo页的数据
+     *
+     * @param pageNo   页码，从1开始
+     * @param pageSize 每页条数
+     * @return 当前页数据，为空或者不满一页表示已经取完
+     */
+    List<T> fetch(int pageNo, int pageSize);
+
+    /**
+     * 把分页回调包装成迭代器，作为GridSheet的流式数据源
+     *
+     * @param pageSize 每页条数
+     */
+    default Iterator<T> iterator(int pageSize) {
+        if (pageSize < 1) {
+            throw E.illegalArgumentException("pageSize must be greater than 0");
+        }
+        return new Iterator<T>() {
+            private int pageNo;
+            private Iterator<T> page = Collections.emptyIterator();
+            private boolean lastPage;
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext()) {
+                    if (lastPage) {
+                        return false;
+                    }
+                    List<T> items = fetch(++pageNo, pageSize);
+                    if (null == items || items.isEmpty()) {
+                        lastPage = true;
+                        return false;
+                    }
+                    lastPage = items.size() < pageSize;
+                    page = items.iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+        };
+    }
+}
@@ -1,6 +1,7 @@
 
 package cn.jianchengwang.tl.poi.excel.converter;
 
+import cn.jianchengwang.tl.common.E;
 import cn.jianchengwang.tl.poi.excel.annotation.ExcelColumn;
 import lombok.experimental.UtilityClass;
 
@@ -10,13 +11,14 @@ import java.math.BigInteger;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @UtilityClass
 public class ConverterCache {
 
-    private static final Map<Class<? extends Converter>, Converter> CONVERTER_MAP = new HashMap<>(64);
+    // 导入导出并发执行时会同时注册自定义转换器
+    private static final Map<Class<? extends Converter>, Converter> CONVERTER_MAP = new ConcurrentHashMap<>(64);
 
     static {
         CONVERTER_MAP.put(StringConverter.class, new StringConverter());
@@ -43,6 +45,19 @@ public class ConverterCache {
         return CONVERTER_MAP.get(type);
     }
 
+    /**
+     * 取出已注册的转换器，没有时创建并注册，同一类型只会保留一个实例
+     */
+    public static Converter getOrCreate(Class<? extends Converter> type) {
+        return CONVERTER_MAP.computeIfAbsent(type, key -> {
+            try {
+                return key.newInstance();
+            } catch (Exception e) {
+                throw E.invalidConfiguration(e);
+            }
+        });
+    }
+
     public static Converter computeConvert(Field field) throws Exception {
         if (null == field) {
             return null;
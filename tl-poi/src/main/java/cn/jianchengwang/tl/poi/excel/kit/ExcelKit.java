@@ -10,6 +10,7 @@ import org.apache.poi.ss.usermodel.WorkbookFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 /**
  * Created by wjc on 2019/9/5
@@ -26,6 +27,115 @@ public class ExcelKit {
         }
     }
 
+    /**
+     * 直接按字母计算单元格引用(如AB123)的列索引，从0开始，不创建CellReference对象
+     *
+     * @param cellReference 单元格引用
+     * @return 列索引，没有列字母时返回-1
+     */
+    public static int columnIndex(String cellReference) {
+        int col = 0;
+        for (int i = 0, len = cellReference.length(); i < len; i++) {
+            char c = cellReference.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                col = col * 26 + (c - 'A' + 1);
+            } else if (c >= 'a' && c <= 'z') {
+                col = col * 26 + (c - 'a' + 1);
+            } else if (c != '$') {
+                break;
+            }
+        }
+        return col - 1;
+    }
+
+    /**
+     * 把java的日期格式(SimpleDateFormat/DateTimeFormatter)转换成excel的单元格格式，
+     * 如 yyyy-MM-dd HH:mm:ss 转成 yyyy-mm-dd hh:mm:ss，yyyy年M月 转成 yyyy年m月；
+     * 分隔符和中文等非ASCII字符原样保留，其他需要用引号转义的文本(如'T')excel和poi读取时的处理不一致，返回null
+     *
+     * @param pattern java日期格式
+     * @return excel单元格格式，null表示无法转换
+     */
+    public static String toExcelDateFormat(String pattern) {
+        StringBuilder format = new StringBuilder(pattern.length() + 8);
+        boolean twelveHour = false;
+        int i = 0;
+        int len = pattern.length();
+        while (i < len) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                // java中单引号包起来的是文本，两个单引号表示单引号本身
+                int end = i + 1;
+                while (end < len && pattern.charAt(end) != '\'') {
+                    if (!isPlainLiteral(pattern.charAt(end))) {
+                        return null;
+                    }
+                    format.append(pattern.charAt(end++));
+                }
+                if (end == i + 1 && end < len) {
+                    return null;
+                }
+                i = end + 1;
+                continue;
+            }
+
+            int n = 1;
+            while (i + n < len && pattern.charAt(i + n) == c) {
+                n++;
+            }
+            String token;
+            switch (c) {
+                case 'y': case 'u':
+                    token = n == 2 ? "yy" : "yyyy"; break;
+                case 'M': case 'L':
+                    token = repeat('m', Math.min(n, 5)); break;
+                case 'd':
+                    token = repeat('d', Math.min(n, 2)); break;
+                case 'E':
+                    token = n >= 4 ? "dddd" : "ddd"; break;
+                case 'H': case 'k':
+                    token = repeat('h', Math.min(n, 2)); break;
+                case 'h': case 'K':
+                    twelveHour = true;
+                    token = repeat('h', Math.min(n, 2)); break;
+                case 'm':
+                    token = repeat('m', Math.min(n, 2)); break;
+                case 's':
+                    token = repeat('s', Math.min(n, 2)); break;
+                case 'S':
+                    token = repeat('0', Math.min(n, 3)); break;
+                case 'a':
+                    token = "AM/PM"; break;
+                default:
+                    if (!isPlainLiteral(c)) {
+                        return null;
+                    }
+                    token = repeat(c, n);
+            }
+            format.append(token);
+            i += n;
+        }
+
+        // java的12小时制需要显式的AM/PM，否则excel会按24小时显示
+        if (twelveHour && format.indexOf("AM/PM") < 0) {
+            format.append(" AM/PM");
+        }
+        return format.toString();
+    }
+
+    /**
+     * 不需要转义就能放进excel格式里的文本字符
+     */
+    private static boolean isPlainLiteral(char c) {
+        return c > 0x7f || " -/:.,()".indexOf(c) > -1;
+    }
+
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
     public static Workbook create(File file) throws ReaderException {
         try {
             return WorkbookFactory.create(file);
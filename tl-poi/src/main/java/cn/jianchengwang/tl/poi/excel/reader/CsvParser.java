@@ -0,0 +1,183 @@
+package cn.jianchengwang.tl.poi.excel.reader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * RFC 4180 csv解析器
+ * 基于字符缓冲的状态机，支持引号包裹的逗号、换行以及""转义，兼容\r\n和\n换行，跳过开头的BOM；
+ * 字段缓冲和记录数组在记录之间复用，每条记录只会为字段值本身分配String
+ */
+class CsvParser implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final char SEPARATOR = ',';
+    private static final char QUOTE = '"';
+    private static final char BOM = '\ufeff';
+
+    private final java.io.Reader in;
+    private char[] buf;
+    private int pos;
+    private int limit;
+    private boolean started;
+
+    private final StringBuilder field = new StringBuilder(64);
+    private String[] fields = new String[16];
+    private int fieldCount;
+    private boolean blank; // 当前记录是一个完全没有字符的空行
+
+    CsvParser(java.io.Reader in) {
+        this.in = in;
+        this.buf = new char[BUFFER_SIZE];
+    }
+
+    /**
+     * 直接解析已经解码好的字符，并行分块读取时使用
+     */
+    CsvParser(char[] chars, int offset, int length) {
+        this.in = null;
+        this.buf = chars;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * 解析下一条记录
+     *
+     * @return 记录的字段数，没有更多记录时返回-1
+     */
+    int next() throws IOException {
+        if (!started) {
+            started = true;
+            if (available() && buf[pos] == BOM) {
+                pos++;
+            }
+        }
+        if (!available()) {
+            return -1;
+        }
+
+        fieldCount = 0;
+        field.setLength(0);
+        blank = false;
+        boolean quoted = false;
+        boolean touched = false; // 是否读到过换行以外的字符
+
+        while (true) {
+            if (!available()) {
+                endField();
+                return fieldCount;
+            }
+
+            if (quoted) {
+                // 引号内：一直读到下一个引号
+                int start = pos;
+                while (pos < limit && buf[pos] != QUOTE) {
+                    pos++;
+                }
+                field.append(buf, start, pos - start);
+                if (pos == limit) {
+                    continue;
+                }
+                pos++;
+                if (available() && buf[pos] == QUOTE) {
+                    field.append(QUOTE);
+                    pos++;
+                } else {
+                    quoted = false;
+                }
+                continue;
+            }
+
+            // 引号外：普通字符成段追加
+            int start = pos;
+            char c = 0;
+            while (pos < limit) {
+                c = buf[pos];
+                if (c == SEPARATOR || c == '\n' || c == '\r' || c == QUOTE) {
+                    break;
+                }
+                pos++;
+            }
+            field.append(buf, start, pos - start);
+            if (pos == limit) {
+                continue;
+            }
+
+            pos++;
+            if (c == SEPARATOR) {
+                touched = true;
+                endField();
+            } else if (c == QUOTE) {
+                touched = true;
+                if (field.length() == 0) {
+                    quoted = true;
+                } else {
+                    // 不规范的csv，字段中间的引号按普通字符处理
+                    field.append(QUOTE);
+                }
+            } else {
+                if (c == '\r' && available() && buf[pos] == '\n') {
+                    pos++;
+                }
+                blank = !touched && fieldCount == 0 && field.length() == 0;
+                endField();
+                return fieldCount;
+            }
+        }
+    }
+
+    /**
+     * 当前记录的字段，数组会被下一次next复用，只有前fieldCount个有效
+     */
+    String[] fields() {
+        return this.fields;
+    }
+
+    int fieldCount() {
+        return this.fieldCount;
+    }
+
+    /**
+     * 空行：换行前没有任何字符，引号包裹的空字段("")不算空行
+     */
+    boolean isBlankRecord() {
+        return blank;
+    }
+
+    private void endField() {
+        if (fieldCount == fields.length) {
+            fields = Arrays.copyOf(fields, fieldCount * 2);
+        }
+        fields[fieldCount++] = field.toString();
+        field.setLength(0);
+    }
+
+    private boolean available() throws IOException {
+        if (pos < limit) {
+            return true;
+        }
+        if (in == null) {
+            return false;
+        }
+        int n;
+        do {
+            n = in.read(buf, 0, buf.length);
+        } while (n == 0);
+        if (n < 0) {
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+    }
+}
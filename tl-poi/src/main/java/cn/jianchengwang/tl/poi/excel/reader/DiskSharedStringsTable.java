@@ -0,0 +1,243 @@
+package cn.jianchengwang.tl.poi.excel.reader;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ooxml.util.SAXHelper;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.usermodel.RichTextString;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.poi.xssf.usermodel.XSSFRelation.NS_SPREADSHEETML;
+
+/**
+ * 落地到磁盘的共享字符串表
+ * 解析sharedStrings.xml时把每个字符串按UTF-8顺序写进临时文件，堆中只保留偏移量索引，
+ * 读取时按段内存映射临时文件解码，最近使用的字符串放在一个小的LRU缓存中；
+ * 百万级唯一字符串的xlsx不再需要把整张表放进堆里，用完需要close删除临时文件
+ */
+@Slf4j
+class DiskSharedStringsTable extends DefaultHandler implements SharedStrings, Closeable {
+
+    private static final long SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final int cacheSize;
+    private final Map<Integer, String> cache;
+
+    private File file;
+    private FileChannel channel;
+    private MappedByteBuffer[] segments;
+    private long[] segmentStarts; // 每个映射段在文件中的起始位置，字符串不会跨段
+
+    private long[] offsets = new long[1024]; // 第i个字符串的起始位置，offsets[uniqueCount]为文件结尾
+    private int count;
+    private int uniqueCount;
+
+    // 解析状态
+    private DataOutputStream out;
+    private long written;
+    private final List<Long> segmentStartList = new ArrayList<>();
+    private final StringBuilder characters = new StringBuilder(64);
+    private boolean tIsOpen;
+    private boolean inRPh;
+
+    DiskSharedStringsTable(OPCPackage pkg, int cacheSize) throws IOException, SAXException {
+        this.cacheSize = cacheSize;
+        this.cache = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > DiskSharedStringsTable.this.cacheSize;
+            }
+        };
+
+        this.file = File.createTempFile("tl-poi-sst-", ".bin");
+        try {
+            List<PackagePart> parts = pkg.getPartsByContentType(XSSFRelation.SHARED_STRINGS.getContentType());
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+                this.out = output;
+                segmentStartList.add(0L);
+                if (!parts.isEmpty()) {
+                    try (InputStream in = parts.get(0).getInputStream()) {
+                        readFrom(in);
+                    }
+                }
+            } finally {
+                this.out = null;
+            }
+            offsets = Arrays.copyOf(offsets, uniqueCount + 1);
+            offsets[uniqueCount] = written;
+            mapSegments();
+        } catch (IOException | SAXException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        log.debug("spill {} shared strings to temp file {}, {} bytes", uniqueCount, file, written);
+    }
+
+    private void readFrom(InputStream in) throws IOException, SAXException {
+        try {
+            XMLReader sheetParser = SAXHelper.newXMLReader();
+            sheetParser.setContentHandler(this);
+            sheetParser.parse(new InputSource(in));
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException("SAX parser appears to be broken - " + e.getMessage());
+        }
+    }
+
+    private void mapSegments() throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.segmentStarts = segmentStartList.stream().mapToLong(Long::longValue).toArray();
+        this.segments = new MappedByteBuffer[segmentStarts.length];
+        for (int i = 0; i < segmentStarts.length; i++) {
+            long end = i + 1 < segmentStarts.length ? segmentStarts[i + 1] : written;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, segmentStarts[i], end - segmentStarts[i]);
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return this.count;
+    }
+
+    @Override
+    public int getUniqueCount() {
+        return this.uniqueCount;
+    }
+
+    @Override
+    public RichTextString getItemAt(int idx) {
+        return new XSSFRichTextString(getEntryAt(idx));
+    }
+
+    public String getEntryAt(int idx) {
+        if (idx < 0 || idx >= uniqueCount) {
+            throw new IndexOutOfBoundsException("shared string index " + idx + ", size " + uniqueCount);
+        }
+        synchronized (cache) {
+            String value = cache.get(idx);
+            if (value != null) {
+                return value;
+            }
+        }
+        String value = decode(idx);
+        synchronized (cache) {
+            cache.put(idx, value);
+        }
+        return value;
+    }
+
+    private String decode(int idx) {
+        long start = offsets[idx];
+        int length = (int) (offsets[idx + 1] - start);
+        int segment = Arrays.binarySearch(segmentStarts, start);
+        if (segment < 0) {
+            segment = -segment - 2;
+        }
+        // duplicate出独立的position，多个sheet并行解析时可以同时读取
+        ByteBuffer buffer = segments[segment].duplicate();
+        buffer.position((int) (start - segmentStarts[segment]));
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //// ContentHandler methods ////
+
+    @Override
+    public void startElement(String uri, String localName, String name, Attributes attributes) throws SAXException {
+        if (uri != null && !uri.equals(NS_SPREADSHEETML)) {
+            return;
+        }
+
+        if ("sst".equals(localName)) {
+            String count = attributes.getValue("count");
+            if (count != null) this.count = Integer.parseInt(count);
+            String uniqueCount = attributes.getValue("uniqueCount");
+            if (uniqueCount != null) offsets = new long[Integer.parseInt(uniqueCount) + 1];
+        } else if ("si".equals(localName)) {
+            characters.setLength(0);
+        } else if ("t".equals(localName)) {
+            tIsOpen = true;
+        } else if ("rPh".equals(localName)) {
+            inRPh = true;
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String name) throws SAXException {
+        if (uri != null && !uri.equals(NS_SPREADSHEETML)) {
+            return;
+        }
+
+        if ("si".equals(localName)) {
+            try {
+                append(characters.toString());
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        } else if ("t".equals(localName)) {
+            tIsOpen = false;
+        } else if ("rPh".equals(localName)) {
+            inRPh = false;
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        if (tIsOpen && !inRPh) {
+            characters.append(ch, start, length);
+        }
+    }
+
+    private void append(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        long segmentStart = segmentStartList.get(segmentStartList.size() - 1);
+        if (written + bytes.length - segmentStart > SEGMENT_SIZE) {
+            segmentStartList.add(written);
+        }
+        if (uniqueCount + 1 >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[uniqueCount++] = written;
+        out.write(bytes);
+        written += bytes.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (cache) {
+            cache.clear();
+        }
+        this.segments = null;
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            // 映射的内存要等GC回收，删除失败时(Windows)退出时再删
+            if (file != null && file.exists() && !file.delete()) {
+                file.deleteOnExit();
+            }
+            file = null;
+        }
+    }
+}
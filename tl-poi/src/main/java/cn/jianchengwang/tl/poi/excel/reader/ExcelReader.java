@@ -2,7 +2,16 @@ package cn.jianchengwang.tl.poi.excel.reader;
 
 import cn.jianchengwang.tl.poi.excel.Reader;
 
+import java.util.function.Consumer;
+
 public interface ExcelReader {
 
-    <T> void readExcel(Reader reader);
+    default <T> void readExcel(Reader reader) {
+        this.<T>readExcel(reader, null);
+    }
+
+    /**
+     * @param rowConsumer 行回调，不为空时解析出的行直接交给回调，不再收集到gridSheet.data
+     */
+    <T> void readExcel(Reader reader, Consumer<T> rowConsumer);
 }
@@ -0,0 +1,159 @@
+package cn.jianchengwang.tl.poi.excel.reader;
+
+import cn.jianchengwang.tl.common.FileTool;
+import cn.jianchengwang.tl.poi.excel.Reader;
+import cn.jianchengwang.tl.poi.excel.enums.ExcelType;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * 读取数据源
+ * 文件直接交给POI随机访问(ZipFile/NPOIFS)，不再整个读进内存；
+ * 输入流只在mark的小窗口内识别格式，xls/xlsx超过spillThreshold时先落地到临时文件再按文件读取，
+ * csv本身就是顺序读取，直接使用原始流
+ */
+@Slf4j
+class ExcelSource implements Closeable {
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final ExcelType type; // null表示csv
+    private final File file;
+    private final boolean tempFile;
+    private final byte[] bytes;
+    private final int length;
+    private InputStream stream;
+
+    private ExcelSource(ExcelType type, File file, boolean tempFile, byte[] bytes, int length, InputStream stream) {
+        this.type = type;
+        this.file = file;
+        this.tempFile = tempFile;
+        this.bytes = bytes;
+        this.length = length;
+        this.stream = stream;
+    }
+
+    static ExcelSource of(Reader reader) throws IOException {
+        if (reader.fromFile() != null) {
+            File file = reader.fromFile();
+            ExcelType type;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                type = ExcelType.valueOf(in);
+            }
+            if (type == null) {
+                return new ExcelSource(null, file, false, null, 0,
+                        new BufferedInputStream(new FileInputStream(file)));
+            }
+            return new ExcelSource(type, file, false, null, 0, null);
+        }
+
+        InputStream in = reader.from();
+        if (!in.markSupported()) {
+            in = new BufferedInputStream(in);
+        }
+        ExcelType type = ExcelType.valueOf(in);
+        if (type == null) {
+            return new ExcelSource(null, null, false, null, 0, in);
+        }
+        return buffer(type, in, reader.getSpillThreshold());
+    }
+
+    /**
+     * 小于阈值的流直接保留在内存中，超过阈值的流把已读部分和剩余部分一起写到临时文件
+     * 输入流读完或者出错都会关闭
+     */
+    private static ExcelSource buffer(ExcelType type, InputStream in, int threshold) throws IOException {
+        try (InputStream source = in) {
+            byte[] buf = new byte[Math.max(1, Math.min(INITIAL_BUFFER_SIZE, threshold))];
+            int len = 0;
+            int n;
+            while ((n = source.read(buf, len, buf.length - len)) != -1) {
+                len += n;
+                if (len < buf.length) {
+                    continue;
+                }
+                if (len >= threshold) {
+                    return spill(type, buf, len, source);
+                }
+                buf = Arrays.copyOf(buf, Math.min(len * 2, threshold));
+            }
+            return new ExcelSource(type, null, false, buf, len, null);
+        }
+    }
+
+    /**
+     * 出错时先关闭临时文件再删除，否则windows上删不掉
+     */
+    private static ExcelSource spill(ExcelType type, byte[] head, int len, InputStream rest) throws IOException {
+        File file = File.createTempFile("tl-poi-reader-", type.getValue());
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            out.write(head, 0, len);
+            FileTool.copy(rest, out);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(file);
+            throw e;
+        }
+        log.debug("spill excel stream to temp file {}, {} bytes", file, file.length());
+        return new ExcelSource(type, file, true, null, 0, null);
+    }
+
+    ExcelType type() {
+        return this.type;
+    }
+
+    OPCPackage openPackage() throws IOException, InvalidFormatException {
+        if (file != null) {
+            return OPCPackage.open(file, PackageAccess.READ);
+        }
+        return OPCPackage.open(new ByteArrayInputStream(bytes, 0, length));
+    }
+
+    Workbook openWorkbook() throws IOException {
+        if (file != null) {
+            return WorkbookFactory.create(file, null, true);
+        }
+        return WorkbookFactory.create(new ByteArrayInputStream(bytes, 0, length));
+    }
+
+    /**
+     * csv按需懒加载读取，流的关闭交给调用方
+     */
+    InputStream openStream() {
+        InputStream in = this.stream;
+        this.stream = null;
+        return in;
+    }
+
+    /**
+     * @return 数据源是用户直接给的文件时返回该文件，否则返回null
+     */
+    File sourceFile() {
+        return tempFile ? null : this.file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (stream != null) {
+                stream.close();
+            }
+        } finally {
+            if (tempFile) {
+                deleteQuietly(file);
+            }
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
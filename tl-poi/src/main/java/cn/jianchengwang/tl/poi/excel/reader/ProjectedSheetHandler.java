@@ -0,0 +1,197 @@
+package cn.jianchengwang.tl.poi.excel.reader;
+
+import cn.jianchengwang.tl.poi.excel.kit.ExcelKit;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.model.Styles;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import static org.apache.poi.xssf.usermodel.XSSFRelation.NS_SPREADSHEETML;
+
+/**
+ * 按列投影的sheet解析器
+ * 和XSSFSheetXMLHandler的取值、格式化规则一致，但在&lt;c&gt;开始时先问SheetToCSV这一列是否需要，
+ * 不需要的列不缓存字符、不查共享字符串表、不解析样式、不格式化，也不回调cell；
+ * 源表列很多而实体只映射其中几列时，大部分单元格只剩下SAX本身的开销
+ */
+@Slf4j
+class ProjectedSheetHandler extends DefaultHandler {
+
+    enum CellType {
+        BOOLEAN, ERROR, FORMULA, INLINE_STRING, SST_STRING, NUMBER
+    }
+
+    private final Styles styles;
+    private final SharedStrings sharedStrings;
+    private final SheetToCSV<?> output;
+    private final DataFormatter formatter;
+
+    private boolean vIsOpen;
+    private boolean isIsOpen;
+    private final StringBuilder value = new StringBuilder(64);
+
+    private CellType cellType;
+    private short formatIndex;
+    private String formatString;
+
+    private int rowNum;
+    private int nextRowNum;
+    private int col;
+    private boolean skipCell;
+
+    ProjectedSheetHandler(Styles styles, SharedStrings sharedStrings, SheetToCSV<?> output, DataFormatter formatter) {
+        this.styles = styles;
+        this.sharedStrings = sharedStrings;
+        this.output = output;
+        this.formatter = formatter;
+    }
+
+    private boolean isTextTag(String name) {
+        // <v>普通值，<t>只在<is>内联字符串中才是值
+        return "v".equals(name) || "inlineStr".equals(name) || ("t".equals(name) && isIsOpen);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        if (uri != null && !uri.equals(NS_SPREADSHEETML)) {
+            return;
+        }
+
+        if (isTextTag(localName)) {
+            vIsOpen = !skipCell;
+            value.setLength(0);
+        } else if ("is".equals(localName)) {
+            isIsOpen = true;
+        } else if ("row".equals(localName)) {
+            String rowNumStr = attributes.getValue("r");
+            rowNum = rowNumStr != null ? Integer.parseInt(rowNumStr) - 1 : nextRowNum;
+            col = -1;
+            output.startRow(rowNum);
+        } else if ("c".equals(localName)) {
+            String cellRef = attributes.getValue("r");
+            col = cellRef != null ? ExcelKit.columnIndex(cellRef) : col + 1;
+            skipCell = !output.isColumnWanted(col);
+            if (!skipCell) {
+                startCell(attributes);
+            }
+        }
+    }
+
+    private void startCell(Attributes attributes) {
+        cellType = CellType.NUMBER;
+        formatIndex = -1;
+        formatString = null;
+
+        String type = attributes.getValue("t");
+        if ("b".equals(type)) {
+            cellType = CellType.BOOLEAN;
+        } else if ("e".equals(type)) {
+            cellType = CellType.ERROR;
+        } else if ("inlineStr".equals(type)) {
+            cellType = CellType.INLINE_STRING;
+        } else if ("s".equals(type)) {
+            cellType = CellType.SST_STRING;
+        } else if ("str".equals(type)) {
+            cellType = CellType.FORMULA;
+        }
+
+        // 只有数字和公式结果需要格式
+        if (styles == null || (cellType != CellType.NUMBER && cellType != CellType.FORMULA)) {
+            return;
+        }
+        String cellStyleStr = attributes.getValue("s");
+        XSSFCellStyle style = null;
+        if (cellStyleStr != null) {
+            style = styles.getStyleAt(Integer.parseInt(cellStyleStr));
+        } else if (styles.getNumCellStyles() > 0) {
+            style = styles.getStyleAt(0);
+        }
+        if (style != null) {
+            formatIndex = style.getDataFormat();
+            formatString = style.getDataFormatString();
+            if (formatString == null) {
+                formatString = BuiltinFormats.getBuiltinFormat(formatIndex);
+            }
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        if (uri != null && !uri.equals(NS_SPREADSHEETML)) {
+            return;
+        }
+
+        if (isTextTag(localName)) {
+            if (vIsOpen) {
+                vIsOpen = false;
+                output.cell(col, cellValue());
+            }
+        } else if ("is".equals(localName)) {
+            isIsOpen = false;
+        } else if ("c".equals(localName)) {
+            skipCell = false;
+        } else if ("row".equals(localName)) {
+            output.endRow(rowNum);
+            nextRowNum = rowNum + 1;
+        } else if ("sheetData".equals(localName)) {
+            output.endSheet();
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (vIsOpen) {
+            value.append(ch, start, length);
+        }
+    }
+
+    private String cellValue() {
+        switch (cellType) {
+            case BOOLEAN:
+                return value.length() > 0 && value.charAt(0) == '0' ? "FALSE" : "TRUE";
+            case ERROR:
+                return "ERROR:" + value;
+            case FORMULA:
+            case NUMBER:
+                String n = value.toString();
+                if (formatString == null || n.isEmpty()) {
+                    return n;
+                }
+                try {
+                    return formatter.formatRawCellContents(Double.parseDouble(n), formatIndex, formatString);
+                } catch (NumberFormatException e) {
+                    return n;
+                }
+            case INLINE_STRING:
+                return value.toString();
+            case SST_STRING:
+                String sstIndex = value.toString();
+                try {
+                    return sharedString(Integer.parseInt(sstIndex));
+                } catch (NumberFormatException e) {
+                    log.error("Failed to parse SST index '{}'", sstIndex, e);
+                    return null;
+                }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 直接取字符串，getItemAt每次都会新建一个XSSFRichTextString(底层是XMLBeans的CTRst)
+     */
+    private String sharedString(int idx) {
+        if (sharedStrings instanceof DiskSharedStringsTable) {
+            return ((DiskSharedStringsTable) sharedStrings).getEntryAt(idx);
+        }
+        if (sharedStrings instanceof ReadOnlySharedStringsTable) {
+            return ((ReadOnlySharedStringsTable) sharedStrings).getEntryAt(idx);
+        }
+        return sharedStrings.getItemAt(idx).getString();
+    }
+}
@@ -1,35 +1,74 @@
 package cn.jianchengwang.tl.poi.excel.reader;
 
 import cn.jianchengwang.tl.poi.excel.Reader;
+import cn.jianchengwang.tl.poi.excel.enums.ExcelType;
 import cn.jianchengwang.tl.poi.excel.exception.ReaderException;
-import cn.jianchengwang.tl.poi.excel.kit.ExcelKit;
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.usermodel.Workbook;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Slf4j
 @UtilityClass
 public class ReaderFactory {
 
+    /**
+     * 文件按随机访问读取；输入流只在mark窗口内识别格式，不再把整个输入复制多份到堆中
+     */
     public static <T> void readByStream(Reader reader) {
-        byte[] bytes;
-        try {
-            bytes = ExcelKit.streamAsBytes(reader.from());
+        readByStream(reader, null);
+    }
+
+    /**
+     * @param rowConsumer 行回调，只在这一次读取中使用，不会保存到reader上
+     */
+    public static <T> void readByStream(Reader reader, Consumer<T> rowConsumer) {
+        try (ExcelSource source = ExcelSource.of(reader)) {
+            if (source.type() == ExcelType.XLSX) {
+                new ReaderWith2007(source).readExcel(reader, rowConsumer);
+            } else if (source.type() == ExcelType.XLS) {
+                try (Workbook workbook = source.openWorkbook()) {
+                    new ReaderWith2003(workbook).readExcel(reader, rowConsumer);
+                }
+            } else if (source.sourceFile() != null && reader.getParallelism() > 1 && rowConsumer == null
+                    && RowRange.of(reader).isUnbounded()) {
+                new ReaderWithCSV(source.sourceFile()).readExcel(reader);
+            } else {
+                new ReaderWithCSV(source.openStream()).readExcel(reader, rowConsumer);
+            }
         } catch (IOException e) {
             throw new ReaderException(e);
         }
+    }
 
-        if (ExcelKit.isXLSX(new ByteArrayInputStream(bytes))) {
-            reader.from(new ByteArrayInputStream(bytes));
-            new ReaderWith2007(null).readExcel(reader);
-        } else {
-            if (ExcelKit.isXLS(new ByteArrayInputStream(bytes))) {
-                new ReaderWith2003(ExcelKit.create(new ByteArrayInputStream(bytes))).readExcel(reader);
-            } else {
-                new ReaderWithCSV(new ByteArrayInputStream(bytes)).readExcel(reader);
+    /**
+     * 在后台线程中解析，解析出的行通过有界缓冲交给返回的Stream，关闭Stream会终止解析线程；
+     * 没有关闭的Stream被回收后，解析线程在下一次投递时发现并停止
+     */
+    public static <T> Stream<T> readAsStream(Reader<T> reader) {
+        RowPipe<T> pipe = new RowPipe<>(reader.getStreamingBufferSize());
+        // 解析线程只能持有pipe，不能持有rows，否则消费方的流永远不会被回收
+        Spliterator<T> rows = pipe.rows();
+
+        Thread producer = new Thread(() -> {
+            Throwable error = null;
+            try {
+                readByStream(reader, pipe::put);
+            } catch (StopReadException e) {
+                // stream closed or dropped by consumer
+            } catch (Throwable e) {
+                error = e;
             }
-        }
+            pipe.finish(error);
+        }, "tl-poi-stream-reader");
+        producer.setDaemon(true);
+        producer.start();
+
+        return StreamSupport.stream(rows, false).onClose(pipe::cancel);
     }
-}
\ No newline at end of file
+}
@@ -11,13 +11,13 @@ import cn.jianchengwang.tl.poi.excel.config.GridSheet;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.ss.usermodel.*;
 
-import java.lang.reflect.Field;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 @Slf4j
@@ -30,12 +30,12 @@ public class ReaderWith2003 extends ReaderConverterAndValidator implements Excel
     }
 
     @Override
-    public <T> void readExcel(Reader reader) throws ReaderException {
+    public <T> void readExcel(Reader reader, Consumer<T> rowConsumer) throws ReaderException {
         Class             clazz    = reader.gridSheet().clazz();
         Stream.Builder<GridSheet<T>> builder = Stream.builder();
 
         try {
-            this.initFieldConverterAndValidator(clazz.getDeclaredFields());
+            this.initFieldConverterAndValidator(clazz);
 
             ExtraInfo extraInfo = reader.gridSheet().extraInfo();
 
@@ -49,13 +49,17 @@ public class ReaderWith2003 extends ReaderConverterAndValidator implements Excel
                 extraInfoColSpan = extraInfo.colSpan();
             }
 
-            boolean isGetSingleSheet = S.isNotEmpty(reader.gridSheet().sheetName()) || reader.gridSheet().sheetIndex()>-1;
+            RowRange rowRange = RowRange.of(reader);
+            List<String> sheetNames = new ArrayList<>();
+            for (Sheet sheet : workbook) {
+                sheetNames.add(sheet.getSheetName());
+            }
+            int target = SheetSelector.select(reader.gridSheet(), sheetNames);
             for(int si=0; si<workbook.getNumberOfSheets(); si++) {
 
+                if (target == SheetSelector.NONE) break;
+                if (target != SheetSelector.ALL && target != si) continue;
                 Sheet sheet = workbook.getSheetAt(si);
-                if(isGetSingleSheet) {
-                    sheet = getSheet(reader);
-                }
 
                 GridSheet<T> gridSheet = GridSheet.build().clazz(clazz).sheetIndex(si).sheetName(sheet.getSheetName()).extraInfo(reader.gridSheet().extraInfo());
                 int startRow = reader.gridSheet().getStartRow();
@@ -86,31 +90,50 @@ public class ReaderWith2003 extends ReaderConverterAndValidator implements Excel
                 }
                 int totalRow = sheet.getPhysicalNumberOfRows();
 
-                List<T> data = new ArrayList<>();
+                List<T> data = rowConsumer == null ? new ArrayList<>() : null;
+                long rowCount = 0;
                 for (int ri = startRow; ri <= totalRow; ri++) {
 
                     Row row = sheet.getRow(ri);
                     if (null == row) {
                         continue;
                     }
+                    if (rowRange.isFull()) {
+                        break;
+                    }
+                    if (!rowRange.accept()) {
+                        continue;
+                    }
 
-                    Object instance = clazz.newInstance();
-                    for (Field field : fieldIndexes.values()) {
-                        this.writeFiledValue(row, instance, field, reader.recordErrorMsg());
+                    Object instance = binder.newInstance();
+                    for (RowBinder.Slot slot : binder.slots()) {
+                        this.writeFiledValue(row, instance, slot, reader.recordErrorMsg());
                     }
 
-                    data.add((T) instance);
+                    rowCount++;
+                    if (rowConsumer != null) {
+                        rowConsumer.accept((T) instance);
+                    } else {
+                        data.add((T) instance);
+                    }
                 }
 
-                gridSheet.data(data);
+                if (data != null) {
+                    gridSheet.data(data);
+                    gridSheet.calTotalRow();
+                } else {
+                    gridSheet.setTotalRow(rowCount);
+                }
 
                 builder.add(gridSheet);
 
-                if(isGetSingleSheet) break;
+                if(target != SheetSelector.ALL || rowRange.isFull()) break;
             }
 
             reader.setGridSheetStream(builder.build());
 
+        } catch (StopReadException e) {
+            reader.setGridSheetStream(builder.build());
         } catch (Exception e) {
             e.printStackTrace();
             throw new ReaderException(e);
@@ -122,27 +145,28 @@ public class ReaderWith2003 extends ReaderConverterAndValidator implements Excel
                 workbook.getSheet(reader.gridSheet().sheetName()) : workbook.getSheetAt(reader.gridSheet().sheetIndex());
     }
 
-    public Object getCellValue(Field field, Cell cell) {
-        Converter<String, ?> converter = fieldConverters.get(field);
+    @Override
+    public Object getCellValue(RowBinder.Slot slot, Cell cell) {
+        Converter<String, ?> converter = slot.converter();
 
         if (null == converter) {
             return cell.getStringCellValue();
         }
         if (cell.getCellType() != CellType.NUMERIC) {
-            return converter.stringToR(cell.getStringCellValue(), field.getType());
+            return slot.convert(cell.getStringCellValue());
         }
-        if (isDateType(field.getType())) {
+        if (isDateType(slot.type())) {
             Date javaDate = DateUtil.getJavaDate(cell.getNumericCellValue());
-            if (field.getType().equals(Date.class)) {
+            if (slot.type().equals(Date.class)) {
                 return javaDate;
-            } else if (field.getType().equals(LocalDate.class)) {
+            } else if (slot.type().equals(LocalDate.class)) {
                 return javaDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
-            } else if (field.getType().equals(LocalDateTime.class)) {
+            } else if (slot.type().equals(LocalDateTime.class)) {
                 return javaDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime();
             }
             return null;
         } else {
-            return converter.stringToR(cell.getNumericCellValue() + "", field.getType());
+            return slot.convert(cell.getNumericCellValue() + "");
         }
     }
 
@@ -1,7 +1,6 @@
 
 package cn.jianchengwang.tl.poi.excel.reader;
 
-import cn.jianchengwang.tl.common.S;
 import cn.jianchengwang.tl.poi.excel.Reader;
 import cn.jianchengwang.tl.poi.excel.config.GridSheet;
 import cn.jianchengwang.tl.poi.excel.exception.ReaderException;
@@ -22,26 +21,57 @@ import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 
 import javax.xml.parsers.ParserConfigurationException;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public class ReaderWith2007 implements ExcelReader {
 
+    // SAXHelper共用一个SAXParserFactory，并行解析时创建parser需要串行
+    private static final Object PARSER_LOCK = new Object();
+
+    private final ExcelSource source;
+
     public ReaderWith2007(Workbook workbook) {
         // ignore
+        this.source = null;
+    }
+
+    ReaderWith2007(ExcelSource source) {
+        this.source = source;
     }
 
-    public <T> void readExcel(Reader reader) throws ReaderException {
+    public <T> void readExcel(Reader reader, Consumer<T> rowConsumer) throws ReaderException {
         Class<T> clazz = reader.gridSheet().clazz();
         try {
             // The package open is instantaneous, as it should be.
-            try (OPCPackage p = getPackage(reader)) {
+            OPCPackage p = getPackage(reader);
+            try {
 
-                SheetToCSV<T> sheetToCSV = new SheetToCSV<T>(p, reader);
+                if (rowConsumer == null && isParallel(reader, p)) {
+                    reader.setGridSheetStream(this.processParallel(reader, p));
+                    return;
+                }
+
+                SheetToCSV<T> sheetToCSV = new SheetToCSV<T>(p, reader, rowConsumer);
 
-                this.process(reader, sheetToCSV);
+                try {
+                    this.process(reader, sheetToCSV);
+                } catch (StopReadException e) {
+                    // 读取被提前终止，已经解析完的sheet照常返回
+                }
 
                 reader.setGridSheetStream(sheetToCSV.getGridSheetStream());
+            } finally {
+                // 只读打开，不需要回写package
+                p.revert();
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -50,9 +80,90 @@ public class ReaderWith2007 implements ExcelReader {
     }
 
     private OPCPackage getPackage(Reader reader) throws Exception {
+        if (source != null) {
+            return source.openPackage();
+        }
         return OPCPackage.open(reader.from());
     }
 
+    /**
+     * 只有读取全部sheet并且收集结果时才并行；行回调要求按顺序逐行交付，附加信息在sheet之间共用，skip/limit跨sheet累计，这些情况仍然串行解析
+     */
+    private boolean isParallel(Reader reader, OPCPackage p) throws IOException, OpenXML4JException {
+        GridSheet config = reader.gridSheet();
+        if (reader.getParallelism() < 2 || !RowRange.of(reader).isUnbounded()) {
+            return false;
+        }
+        boolean haveExtraInfo = config.extraInfo() != null && config.extraInfo().haveExtraInfo();
+        return !haveExtraInfo && SheetSelector.select(config, sheetNames(p)) == SheetSelector.ALL;
+    }
+
+    /**
+     * sheet之间只共享只读的共享字符串表和样式表，每个sheet用独立的SheetToCSV在线程池中解析，结果按sheet顺序返回
+     */
+    private <T> Stream<GridSheet<T>> processParallel(Reader reader, OPCPackage p) throws Exception {
+        XSSFReader xssfReader = new XSSFReader(p);
+        StylesTable styles     = xssfReader.getStylesTable();
+        XSSFReader.SheetIterator   iter       = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
+        SharedStrings strings    = openSharedStrings(reader, p);
+
+        ForkJoinPool pool = new ForkJoinPool(reader.getParallelism());
+        List<InputStream> streams = new ArrayList<>();
+        try {
+            List<Future<GridSheet<T>>> futures = new ArrayList<>();
+            int index = 0;
+            while (iter.hasNext()) {
+                InputStream stream = iter.next();
+                streams.add(stream);
+
+                GridSheet<T> gridSheet = GridSheet.build()
+                        .clazz(reader.gridSheet().clazz())
+                        .sheetIndex(index)
+                        .sheetName(iter.getSheetName())
+                        .extraInfo(reader.gridSheet().extraInfo());
+                futures.add(pool.submit(() -> {
+                    SheetToCSV<T> sheetToCSV = new SheetToCSV<T>(p, reader, null);
+                    sheetToCSV.gridSheet(gridSheet);
+                    processSheet(styles, strings, sheetToCSV, stream);
+                    return gridSheet;
+                }));
+                ++index;
+            }
+
+            Stream.Builder<GridSheet<T>> builder = Stream.builder();
+            for (Future<GridSheet<T>> future : futures) {
+                try {
+                    builder.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new ReaderException(e.getCause());
+                }
+            }
+            return builder.build();
+        } finally {
+            pool.shutdownNow();
+            for (InputStream stream : streams) {
+                stream.close();
+            }
+            closeSharedStrings(strings);
+        }
+    }
+
+    /**
+     * 默认整张共享字符串表读进堆中，开启sharedStringsOnDisk后落地到临时文件按需解码
+     */
+    private SharedStrings openSharedStrings(Reader reader, OPCPackage p) throws IOException, SAXException {
+        if (reader.sharedStringsOnDisk()) {
+            return new DiskSharedStringsTable(p, reader.getSharedStringsCacheSize());
+        }
+        return new ReadOnlySharedStringsTable(p);
+    }
+
+    private void closeSharedStrings(SharedStrings strings) throws IOException {
+        if (strings instanceof Closeable) {
+            ((Closeable) strings).close();
+        }
+    }
+
     /**
      * Initiates the processing of the XLS workbook file to CSV.
      *
@@ -60,33 +171,30 @@ public class ReaderWith2007 implements ExcelReader {
      * @throws SAXException if parsing the XML data fails.
      */
     public void process(Reader reader, SheetToCSV sheetToCSV) throws IOException, OpenXML4JException, SAXException {
-        ReadOnlySharedStringsTable strings    = new ReadOnlySharedStringsTable(sheetToCSV.getOpcPackage());
+        SharedStrings strings    = openSharedStrings(reader, sheetToCSV.getOpcPackage());
+        try {
+            this.processSheets(reader, sheetToCSV, strings);
+        } finally {
+            closeSharedStrings(strings);
+        }
+    }
+
+    private void processSheets(Reader reader, SheetToCSV sheetToCSV, SharedStrings strings) throws IOException, OpenXML4JException, SAXException {
         XSSFReader xssfReader = new XSSFReader(sheetToCSV.getOpcPackage());
         StylesTable styles     = xssfReader.getStylesTable();
         XSSFReader.SheetIterator   iter       = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
         int                        index      = 0;
 
-        boolean isGetSingleSheet = S.isNotEmpty(reader.getGridSheet().sheetName()) || reader.getGridSheet().sheetIndex()>-1;
+        int target = SheetSelector.select(reader.gridSheet(), sheetNames(sheetToCSV.getOpcPackage()));
+        if (target == SheetSelector.NONE) {
+            return;
+        }
         while (iter.hasNext()) {
             try (InputStream stream = iter.next()) {
-
-                if(isGetSingleSheet) {
-                    boolean bySheetName = S.isNotEmpty(reader.gridSheet().sheetName());
-                    String sheetName = iter.getSheetName();
-
-                    sheetToCSV.gridSheet(GridSheet.build()
-                            .clazz(reader.gridSheet().clazz())
-                            .sheetIndex(index)
-                            .sheetName(sheetName)
-                            .extraInfo(reader.gridSheet().extraInfo()));
-                    if (bySheetName && reader.gridSheet().sheetName().equals(sheetName)) {
-                        processSheet(styles, strings, sheetToCSV, stream);
-                        break;
-                    }
-                    if (!bySheetName && reader.gridSheet().sheetIndex() == index) {
-                        processSheet(styles, strings, sheetToCSV, stream);
-                        break;
-                    }
+                // 不是目标sheet的直接跳过，不解析
+                if (target != SheetSelector.ALL && target != index) {
+                    ++index;
+                    continue;
                 }
 
                 sheetToCSV.gridSheet(GridSheet.build()
@@ -95,12 +203,27 @@ public class ReaderWith2007 implements ExcelReader {
                         .sheetName(iter.getSheetName())
                         .extraInfo(reader.gridSheet().extraInfo()));
                 processSheet(styles, strings, sheetToCSV, stream);
-
+            }
+            if (target != SheetSelector.ALL || sheetToCSV.isFull()) {
+                break;
             }
             ++index;
         }
     }
 
+    /**
+     * sheet名称来自workbook.xml，打开的sheet流不读取直接关闭
+     */
+    private List<String> sheetNames(OPCPackage p) throws IOException, OpenXML4JException {
+        List<String> sheetNames = new ArrayList<>();
+        XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator) new XSSFReader(p).getSheetsData();
+        while (iter.hasNext()) {
+            iter.next().close();
+            sheetNames.add(iter.getSheetName());
+        }
+        return sheetNames;
+    }
+
     /**
      * Parses and shows the content of one sheet
      * using the specified styles and shared-strings tables.
@@ -123,9 +246,18 @@ public class ReaderWith2007 implements ExcelReader {
         InputSource sheetSource = new InputSource(sheetInputStream);
 
         try {
-            XMLReader sheetParser = SAXHelper.newXMLReader();
-            ContentHandler handler = new XSSFSheetXMLHandler(
-                    styles, null, strings, sheetHandler, formatter, false);
+            XMLReader sheetParser;
+            synchronized (PARSER_LOCK) {
+                sheetParser = SAXHelper.newXMLReader();
+            }
+            ContentHandler handler;
+            if (sheetHandler instanceof SheetToCSV) {
+                // 只解析实体映射到的列
+                handler = new ProjectedSheetHandler(styles, strings, (SheetToCSV<?>) sheetHandler, formatter);
+            } else {
+                handler = new XSSFSheetXMLHandler(
+                        styles, null, strings, sheetHandler, formatter, false);
+            }
             sheetParser.setContentHandler(handler);
             sheetParser.parse(sheetSource);
         } catch (ParserConfigurationException e) {
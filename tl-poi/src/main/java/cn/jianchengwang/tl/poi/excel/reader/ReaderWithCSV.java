@@ -1,86 +1,302 @@
-
 package cn.jianchengwang.tl.poi.excel.reader;
 
 import cn.jianchengwang.tl.common.E;
 import cn.jianchengwang.tl.poi.excel.Const;
 import cn.jianchengwang.tl.poi.excel.Reader;
-import cn.jianchengwang.tl.poi.excel.annotation.ExcelColumn;
-import cn.jianchengwang.tl.poi.excel.converter.Converter;
+import cn.jianchengwang.tl.poi.excel.config.GridSheet;
 import cn.jianchengwang.tl.poi.excel.exception.ReaderException;
-import cn.jianchengwang.tl.poi.excel.validator.Validator;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.lang.reflect.Field;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.stream.Collectors.toList;
 
+/**
+ * csv读取
+ * 顺序模式下边解析边返回数据；文件来源并且parallelism大于1时，把文件内存映射后在记录边界处切块并行解析，按文件顺序返回，
+ * 同时只有parallelism+1块的数据在内存中
+ */
 @Slf4j
 public class ReaderWithCSV extends ReaderConverterAndValidator implements ExcelReader {
 
+    private static final long CHUNK_SIZE = 4 * 1024 * 1024; // 每块的大小，块按窗口提交，块数多少不影响内存
+    private static final long SCAN_WINDOW_SIZE = 64 * 1024 * 1024;
+
     private InputStream inputStream;
+    private File file;
 
     public ReaderWithCSV(InputStream inputStream) {
         this.inputStream = inputStream;
     }
 
+    public ReaderWithCSV(File file) {
+        this.file = file;
+    }
+
     @Override
-    public <T> void readExcel(Reader reader) throws ReaderException {
+    public <T> void readExcel(Reader reader, Consumer<T> rowConsumer) throws ReaderException {
         Class clazz = reader.gridSheet().clazz();
+        this.initFieldConverterAndValidator(clazz);
 
-        try {
-            this.initFieldConverterAndValidator(clazz.getDeclaredFields());
-        } catch (Exception e) {
-            throw new ReaderException(e);
+        // 跳过起始行和表头
+        int skipRows = reader.gridSheet().startRow() + reader.gridSheet().headLineRow();
+        boolean recordErrorMsg = reader.recordErrorMsg();
+
+        Stream<T> stream;
+        if (file != null) {
+            try {
+                stream = this.readParallel(reader.getParallelism(), skipRows, recordErrorMsg);
+            } catch (IOException e) {
+                throw new ReaderException(e);
+            }
+        } else {
+            CsvParser parser = new CsvParser(new InputStreamReader(inputStream, Const.charset));
+            stream = StreamSupport.stream(new RecordSpliterator<T>(parser, skipRows, RowRange.of(reader), recordErrorMsg), false)
+                    .onClose(() -> closeQuietly(parser));
         }
 
-        Stream.Builder<T> builder = Stream.builder();
+        GridSheet<T> gridSheet = GridSheet.build().clazz(clazz).sheetIndex(0);
 
-        try (BufferedReader br = new BufferedReader(
-                new InputStreamReader(inputStream, Const.charset))) {
+        if (rowConsumer != null) {
+            long[] rowCount = new long[1];
+            try (Stream<T> rows = stream) {
+                rows.forEach(row -> {
+                    rowCount[0]++;
+                    rowConsumer.accept(row);
+                });
+            } catch (StopReadException e) {
+                // 读取被提前终止
+            }
+            gridSheet.setTotalRow(rowCount[0]);
+            reader.setGridSheetStream(Stream.of(gridSheet));
+            return;
+        }
 
-            int startRow = 0;
-            int    pos  = 0;
-            String line = "";
-            while ((line = br.readLine()) != null) {
-                if (pos++ < startRow) {
-                    continue;
-                }
-                Object   instance = clazz.newInstance();
-                String[] csvLine  = line.split(",");
-                this.csvLineToInstance(instance, csvLine, reader.recordErrorMsg());
-                builder.add((T) instance);
+        reader.stream(stream);
+        // 只有按sheet读取时才需要把数据收集起来
+        reader.setGridSheetStream(Stream.of(gridSheet).map(sheet -> {
+            sheet.data(stream.collect(toList()));
+            sheet.calTotalRow();
+            return sheet;
+        }));
+    }
+
+    /**
+     * 先按引号奇偶扫描出安全的记录边界，每一块内存映射后交给线程池解码、解析；
+     * 同时最多只有parallelism+1块在解析或者等待消费，消费完一块才提交下一块，内存占用和文件大小无关
+     */
+    private <T> Stream<T> readParallel(int parallelism, int skipRows, boolean recordErrorMsg) throws IOException {
+        List<MappedByteBuffer> chunks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long[] bounds = splitRecords(channel);
+            for (int i = 0; i < bounds.length - 1; i++) {
+                chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]));
             }
-            reader.stream(builder.build());
-        } catch (Exception e) {
-            throw new ReaderException(e);
         }
+
+        ChunkSpliterator<T> rows = new ChunkSpliterator<>(chunks, parallelism, skipRows, recordErrorMsg);
+        return StreamSupport.stream(rows, false).onClose(rows::close);
     }
 
-    private void csvLineToInstance(Object instance, String[] csvLine, boolean recordErrorMsg) {
-        for (Field field : fieldIndexes.values()) {
-            ExcelColumn column = field.getAnnotation(ExcelColumn.class);
-            try {
-                if (csvLine.length < (column.index() + 1)) {
-                    continue;
+    private static long[] splitRecords(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long chunkSize = CHUNK_SIZE;
+
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        long nextTarget = chunkSize;
+        boolean quoted = false;
+        long position = 0;
+        while (position < size && nextTarget < size) {
+            long windowSize = Math.min(SCAN_WINDOW_SIZE, size - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+            for (int i = 0; i < windowSize; i++) {
+                byte b = window.get(i);
+                if (b == '"') {
+                    // ""转义会翻转两次，不影响奇偶
+                    quoted = !quoted;
+                } else if (b == '\n' && !quoted && position + i >= nextTarget) {
+                    long boundary = position + i + 1;
+                    bounds.add(boundary);
+                    nextTarget = boundary + chunkSize;
                 }
-                Object    cellValue = csvLine[column.index()];
-                Converter converter = fieldConverters.get(field);
-                if (null != converter) {
-                    cellValue = converter.stringToR(csvLine[column.index()], field.getType());
+            }
+            position += windowSize;
+        }
+        if (bounds.get(bounds.size() - 1) < size) {
+            bounds.add(size);
+        }
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private <T> List<T> parseChunk(MappedByteBuffer chunk, int skipRows, boolean recordErrorMsg) throws IOException {
+        CharBuffer chars = Const.charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(chunk);
+        CsvParser parser = new CsvParser(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+
+        List<T> rows = new ArrayList<>();
+        RecordSpliterator<T> records = new RecordSpliterator<>(parser, skipRows, null, recordErrorMsg);
+        while (records.tryAdvance(rows::add)) {
+            // parse the whole chunk
+        }
+        return rows;
+    }
+
+    /**
+     * 按文件顺序逐块返回解析结果，取走一块后再提交后面的一块
+     */
+    private class ChunkSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+
+        private final List<MappedByteBuffer> chunks;
+        private final int skipRows;
+        private final boolean recordErrorMsg;
+        private final ForkJoinPool pool;
+        private final Deque<Future<List<T>>> inFlight = new ArrayDeque<>();
+        private int submitted;
+        private Iterator<T> current = Collections.emptyIterator();
+
+        ChunkSpliterator(List<MappedByteBuffer> chunks, int parallelism, int skipRows, boolean recordErrorMsg) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.chunks = chunks;
+            this.skipRows = skipRows;
+            this.recordErrorMsg = recordErrorMsg;
+            this.pool = new ForkJoinPool(parallelism);
+            for (int i = 0; i <= parallelism; i++) {
+                this.submitNext();
+            }
+        }
+
+        private void submitNext() {
+            if (submitted == chunks.size()) {
+                pool.shutdown();
+                return;
+            }
+            int index = submitted++;
+            MappedByteBuffer chunk = chunks.set(index, null);
+            int skip = index == 0 ? skipRows : 0;
+            inFlight.add(pool.submit(() -> parseChunk(chunk, skip, recordErrorMsg)));
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (!current.hasNext()) {
+                Future<List<T>> next = inFlight.poll();
+                if (null == next) {
+                    return false;
                 }
-                field.set(instance, cellValue);
+                current = take(next);
+                this.submitNext();
+            }
+            action.accept(current.next());
+            return true;
+        }
+
+        private Iterator<T> take(Future<List<T>> future) {
+            try {
+                return future.get().iterator();
+            } catch (ExecutionException e) {
+                this.close();
+                throw new ReaderException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.close();
+                throw new ReaderException(e);
+            }
+        }
+
+        /**
+         * 流被提前关闭时取消还没有完成的块
+         */
+        void close() {
+            pool.shutdownNow();
+            inFlight.clear();
+            current = Collections.emptyIterator();
+        }
+    }
+
+    private class RecordSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+
+        private final CsvParser parser;
+        private final int skipRows;
+        private final RowRange rowRange; // 并行分块时为null，分块读取不支持skip/limit
+        private final boolean recordErrorMsg;
+        private int skipped;
+
+        RecordSpliterator(CsvParser parser, int skipRows, RowRange rowRange, boolean recordErrorMsg) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.parser = parser;
+            this.skipRows = skipRows;
+            this.rowRange = rowRange;
+            this.recordErrorMsg = recordErrorMsg;
+        }
 
-                Validator validator = fieldValidators.get(field);
-                if(null != validator) {
-                    String validError = validator.valid(cellValue);
-                    if(validError != null) {
-                        throw new ReaderException(validError);
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super T> action) {
+            try {
+                while (true) {
+                    int fieldCount = rowRange != null && rowRange.isFull() ? -1 : parser.next();
+                    if (fieldCount < 0) {
+                        parser.close();
+                        return false;
+                    }
+                    if (parser.isBlankRecord()) {
+                        continue;
+                    }
+                    if (skipped < skipRows) {
+                        skipped++;
+                        continue;
+                    }
+                    if (rowRange != null && !rowRange.accept()) {
+                        continue;
                     }
+                    Object instance = binder.newInstance();
+                    csvLineToInstance(instance, parser.fields(), fieldCount, recordErrorMsg);
+                    action.accept((T) instance);
+                    return true;
                 }
+            } catch (IOException e) {
+                throw new ReaderException(e);
+            }
+        }
+    }
+
+    private void csvLineToInstance(Object instance, String[] csvLine, int fieldCount, boolean recordErrorMsg) {
+        for (RowBinder.Slot slot : binder.slots()) {
+            if (fieldCount < (slot.index() + 1)) {
+                continue;
+            }
+            try {
+                Object cellValue = slot.convert(csvLine[slot.index()]);
+                slot.set(instance, cellValue);
+
+                slot.valid(cellValue);
             } catch (Exception e) {
-                log.error("write value {} to field {} failed", csvLine[column.index()], field.getName(), e);
+                log.error("write value {} to field {} failed", csvLine[slot.index()], slot.name(), e);
                 if(recordErrorMsg) {
                     recordErrorMsg(instance, e.getMessage());
                 } else {
@@ -90,4 +306,12 @@ public class ReaderWithCSV extends ReaderConverterAndValidator implements ExcelR
         }
     }
 
+    private static void closeQuietly(CsvParser parser) {
+        try {
+            parser.close();
+        } catch (IOException e) {
+            log.warn("close csv reader fail", e);
+        }
+    }
+
 }
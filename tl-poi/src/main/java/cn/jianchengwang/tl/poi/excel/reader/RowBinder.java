@@ -0,0 +1,157 @@
+package cn.jianchengwang.tl.poi.excel.reader;
+
+import cn.jianchengwang.tl.poi.excel.config.ExcelModel;
+import cn.jianchengwang.tl.poi.excel.converter.Converter;
+import cn.jianchengwang.tl.poi.excel.exception.ReaderException;
+import cn.jianchengwang.tl.poi.excel.validator.Validator;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * 实体类的行绑定器
+ * 构造器、setter、转换器、校验器都来自ExcelModel，这里只按列索引组织成读取用的槽位，
+ * 按类缓存，所有reader共用，读取时不再有Field.set/getAnnotation/Class.newInstance
+ */
+public class RowBinder<T> {
+
+    private static final ClassValue<RowBinder<?>> BINDERS = new ClassValue<RowBinder<?>>() {
+        @Override
+        protected RowBinder<?> computeValue(Class<?> type) {
+            return new RowBinder<>(ExcelModel.of(type));
+        }
+    };
+
+    private final Class<T> clazz;
+    private final MethodHandle constructor;
+    private final List<Slot> slots;
+    private final Slot[] columnSlots; // 按列索引展开的稠密数组，没有映射的列为null
+
+    @SuppressWarnings("unchecked")
+    public static <T> RowBinder<T> of(Class<T> clazz) {
+        return (RowBinder<T>) BINDERS.get(clazz);
+    }
+
+    private RowBinder(ExcelModel<T> model) {
+        this.clazz = model.clazz();
+        this.constructor = model.constructor();
+
+        List<Slot> slotList = new ArrayList<>();
+        for (ExcelModel.Column column : model.sortedColumns()) {
+            slotList.add(new Slot(column));
+        }
+        this.slots = Collections.unmodifiableList(slotList);
+        int maxIndex = slotList.isEmpty() ? -1 : slotList.get(slotList.size() - 1).index;
+        this.columnSlots = new Slot[maxIndex + 1];
+        for (Slot slot : slotList) {
+            this.columnSlots[slot.index] = slot;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public T newInstance() {
+        if (constructor == null) {
+            throw new ReaderException(clazz.getName() + " must have a no-arg constructor");
+        }
+        try {
+            return (T) (Object) constructor.invokeExact();
+        } catch (Throwable e) {
+            throw new ReaderException("create instance of " + clazz.getName() + " fail", e);
+        }
+    }
+
+    public List<Slot> slots() {
+        return this.slots;
+    }
+
+    /**
+     * @param index cell index
+     * @return 没有映射的列返回null
+     */
+    public Slot slot(int index) {
+        if (index < 0 || index >= columnSlots.length) {
+            return null;
+        }
+        return columnSlots[index];
+    }
+
+    /**
+     * 一个@ExcelColumn字段：列索引、setter、转换器、校验器
+     */
+    public static class Slot {
+        private final int index;
+        private final Field field;
+        private final Class<?> type;
+        private final MethodHandle setter;
+        private final Converter<String, ?> converter;
+        private final Validator validator;
+
+        @SuppressWarnings("unchecked")
+        Slot(ExcelModel.Column column) {
+            this.index = column.index();
+            this.field = column.field();
+            this.type = field.getType();
+            this.setter = column.setter();
+            this.converter = column.converter();
+            this.validator = column.validator();
+        }
+
+        public int index() {
+            return index;
+        }
+
+        public Field field() {
+            return field;
+        }
+
+        public String name() {
+            return field.getName();
+        }
+
+        public Class<?> type() {
+            return type;
+        }
+
+        public Converter<String, ?> converter() {
+            return converter;
+        }
+
+        public Validator validator() {
+            return validator;
+        }
+
+        public Object convert(String value) {
+            if (null == converter) {
+                return value;
+            }
+            return converter.stringToR(value, type);
+        }
+
+        public void set(Object instance, Object value) throws Exception {
+            if (null == setter) {
+                throw new ReaderException("field " + field.getName() + " is final and can not be read into");
+            }
+            try {
+                setter.invokeExact(instance, value);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new ReaderException(e);
+            }
+        }
+
+        /**
+         * 校验失败抛出ReaderException
+         */
+        public void valid(Object value) {
+            if (null == validator) {
+                return;
+            }
+            String validError = validator.valid(value);
+            if (validError != null) {
+                throw new ReaderException(validError);
+            }
+        }
+    }
+}
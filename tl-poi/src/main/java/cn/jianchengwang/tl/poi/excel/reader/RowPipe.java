@@ -0,0 +1,119 @@
+package cn.jianchengwang.tl.poi.excel.reader;
+
+import cn.jianchengwang.tl.poi.excel.exception.ReaderException;
+
+import java.lang.ref.WeakReference;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 解析线程和消费线程之间的有界行缓冲
+ * 解析线程通过put投递解析好的行，缓冲满了就阻塞解析线程；消费方按 {@link #rows()} 逐行拉取，
+ * 行数据被取走后即可被回收，所以整个读取过程内存占用只和缓冲大小有关，和文件行数无关
+ * 解析线程只弱引用消费方，消费方没有关闭流就丢弃时，解析线程在等待缓冲的间隙发现并停止
+ */
+class RowPipe<T> {
+
+    private static final Object END = new Object();
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final BlockingQueue<Object> queue;
+    private volatile boolean cancelled;
+    private volatile Throwable error;
+    private volatile WeakReference<Rows> consumer; // 消费方已经被回收时为空引用
+
+    RowPipe(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * 消费方拉取数据的Spliterator，只能调用一次，需要在解析线程启动前取出
+     */
+    Spliterator<T> rows() {
+        Rows rows = new Rows();
+        this.consumer = new WeakReference<>(rows);
+        return rows;
+    }
+
+    /**
+     * 解析线程调用，消费方已经关闭或者丢弃流时抛出StopReadException终止解析
+     */
+    void put(T row) {
+        offer(row);
+    }
+
+    /**
+     * 解析线程结束时调用，error不为空时消费方会收到ReaderException
+     */
+    void finish(Throwable error) {
+        this.error = error;
+        try {
+            offer(END);
+        } catch (StopReadException e) {
+            // consumer is gone, nobody waits for the end marker
+        }
+    }
+
+    /**
+     * 消费方调用，通知解析线程尽快停止
+     */
+    void cancel() {
+        this.cancelled = true;
+        this.queue.clear();
+    }
+
+    private void offer(Object item) {
+        try {
+            while (!cancelled) {
+                if (queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+                WeakReference<Rows> ref = this.consumer;
+                if (null != ref && null == ref.get()) {
+                    // 流没有关闭就被丢弃了
+                    cancel();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        throw new StopReadException();
+    }
+
+    private class Rows extends Spliterators.AbstractSpliterator<T> {
+
+        private boolean ended;
+
+        Rows() {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (ended) {
+                return false;
+            }
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ReaderException(e);
+            }
+            if (item == END) {
+                ended = true;
+                if (error != null) {
+                    throw new ReaderException(error);
+                }
+                return false;
+            }
+            action.accept((T) item);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package cn.jianchengwang.tl.poi.excel.reader;
+
+import cn.jianchengwang.tl.poi.excel.Reader;
+
+/**
+ * 读取的数据行范围(Reader.skip/limit)，跨sheet累计，表头和附加信息行不计入
+ */
+class RowRange {
+
+    private final long skip;
+    private final long limit;
+    private long seen;
+    private long taken;
+
+    private RowRange(long skip, long limit) {
+        this.skip = skip;
+        this.limit = limit;
+    }
+
+    static RowRange of(Reader reader) {
+        return new RowRange(reader.getSkip(), reader.getLimit());
+    }
+
+    boolean isUnbounded() {
+        return skip == 0 && limit < 0;
+    }
+
+    /**
+     * 遇到一条数据行时调用
+     *
+     * @return 该行需要读取返回true，需要跳过返回false
+     */
+    boolean accept() {
+        if (seen < skip) {
+            seen++;
+            return false;
+        }
+        if (isFull()) {
+            return false;
+        }
+        taken++;
+        return true;
+    }
+
+    /**
+     * @return 已经读够limit行，后面的内容不需要再解析
+     */
+    boolean isFull() {
+        return limit >= 0 && taken >= limit;
+    }
+}
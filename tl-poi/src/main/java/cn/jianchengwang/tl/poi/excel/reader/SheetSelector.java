@@ -0,0 +1,41 @@
+package cn.jianchengwang.tl.poi.excel.reader;
+
+import cn.jianchengwang.tl.common.S;
+import cn.jianchengwang.tl.poi.excel.Const;
+import cn.jianchengwang.tl.poi.excel.config.GridSheet;
+
+import java.util.List;
+
+/**
+ * 根据GridSheet的sheetIndex/sheetName确定要读取的sheet，读取前就确定下来，不是目标的sheet不用解析
+ */
+final class SheetSelector {
+
+    static final int ALL = -1; // 读取全部sheet
+    static final int NONE = -2; // 指定的sheet不存在
+
+    private SheetSelector() {
+    }
+
+    /**
+     * @param config     读取配置
+     * @param sheetNames 文件中按顺序排列的sheet名称
+     * @return 目标sheet的索引，或者ALL/NONE
+     */
+    static int select(GridSheet config, List<String> sheetNames) {
+        Integer sheetIndex = config.sheetIndex();
+        if (sheetIndex != null && sheetIndex > -1) {
+            return sheetIndex < sheetNames.size() ? sheetIndex : NONE;
+        }
+        String sheetName = config.sheetName();
+        if (S.isEmpty(sheetName)) {
+            return ALL;
+        }
+        int index = sheetNames.indexOf(sheetName);
+        if (index > -1) {
+            return index;
+        }
+        // 默认的sheet名称只是GridSheet的初始值，文件中没有这个sheet时按读取全部sheet处理
+        return Const.DEFAULT_SHEET_NAME.equals(sheetName) ? ALL : NONE;
+    }
+}
@@ -5,19 +5,14 @@ import cn.jianchengwang.tl.poi.excel.Reader;
 import cn.jianchengwang.tl.poi.excel.config.GridSheet;
 import cn.jianchengwang.tl.poi.excel.config.extrainfo.ExtraInfo;
 import cn.jianchengwang.tl.poi.excel.config.extrainfo.Info;
-import cn.jianchengwang.tl.poi.excel.converter.Converter;
-import cn.jianchengwang.tl.poi.excel.exception.ReaderException;
 import cn.jianchengwang.tl.poi.excel.kit.ExcelKit;
-import cn.jianchengwang.tl.poi.excel.validator.Validator;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.openxml4j.opc.OPCPackage;
-import org.apache.poi.ss.util.CellAddress;
-import org.apache.poi.ss.util.CellReference;
 import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
 import org.apache.poi.xssf.usermodel.XSSFComment;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 /**
@@ -39,7 +34,7 @@ public class SheetToCSV<T> extends ReaderConverterAndValidator implements XSSFSh
     private final GridSheet<T> gridSheetConfig;
     private final ExtraInfo extraInfo;
     private final boolean haveExtraInfo;
-    private volatile int extraInfoListIndex = 0;
+    private int extraInfoListIndex = 0;
 
     private T row;
     private final Stream.Builder<GridSheet<T>> gridSheetBuilder;
@@ -47,7 +42,13 @@ public class SheetToCSV<T> extends ReaderConverterAndValidator implements XSSFSh
 
     private final boolean recordErrorMsg;
 
-    public SheetToCSV(OPCPackage opcPackage, Reader reader) {
+    private final Consumer<T> rowConsumer;
+    private long rowCount;
+
+    private final RowRange rowRange;
+    private boolean skipRow; // 当前数据行在skip范围内，不取值
+
+    public SheetToCSV(OPCPackage opcPackage, Reader reader, Consumer<T> rowConsumer) {
         this.opcPackage = opcPackage;
         this.clazz = reader.gridSheet().clazz();
 
@@ -66,12 +67,10 @@ public class SheetToCSV<T> extends ReaderConverterAndValidator implements XSSFSh
         gridSheetBuilder = Stream.builder();
 
         recordErrorMsg = reader.recordErrorMsg();
+        this.rowConsumer = rowConsumer;
+        rowRange = RowRange.of(reader);
 
-        try {
-            this.initFieldConverterAndValidator(clazz.getDeclaredFields());
-        } catch (Exception e) {
-            log.error("init field converter fail", e);
-        }
+        this.initFieldConverterAndValidator(clazz);
     }
 
     @Override
@@ -80,21 +79,42 @@ public class SheetToCSV<T> extends ReaderConverterAndValidator implements XSSFSh
         firstCellOfRow = true;
         currentRow = rowNum;
         currentCol = -1;
+        skipRow = false;
         if (currentRow < startRow) {
             return;
         }
-        row = ExcelKit.newInstance(clazz);
+        skipRow = !rowRange.accept();
+        if (skipRow && rowRange.isFull()) {
+            // limit(0)
+            this.endSheet();
+            throw new StopReadException();
+        }
+        row = skipRow ? null : (T) binder.newInstance();
     }
 
     @Override
     public void endRow(int rowNum) {
-        if (currentRow < startRow) {
+        if (currentRow < startRow || skipRow) {
             return;
         }
-        if(gridSheet.data() == null) {
-            gridSheet.data(new ArrayList<>());
+        rowCount++;
+        if (rowConsumer != null) {
+            // 交给回调后不再持有，行数据消费完即可回收
+            T current = row;
+            row = null;
+            rowConsumer.accept(current);
+        } else {
+            if(gridSheet.data() == null) {
+                gridSheet.data(new ArrayList<>());
+            }
+            gridSheet.data().add(row);
+        }
+
+        if (rowRange.isFull()) {
+            // 读够limit行，结束当前sheet并终止整个解析
+            this.endSheet();
+            throw new StopReadException();
         }
-        gridSheet.data().add(row);
     }
 
     @Override
@@ -105,16 +125,30 @@ public class SheetToCSV<T> extends ReaderConverterAndValidator implements XSSFSh
             return;
         }
 
-        if (firstCellOfRow) {
-            firstCellOfRow = false;
+        // gracefully handle missing CellRef here in a similar way as XSSFCell does
+        this.cell(cellReference == null ? currentCol + 1 : ExcelKit.columnIndex(cellReference), formattedValue);
+    }
+
+    /**
+     * 当前行的这一列是否需要取值，数据行只需要有@ExcelColumn映射的列，附加信息所在的行需要全部列
+     */
+    boolean isColumnWanted(int col) {
+        if (currentRow < startRow) {
+            return haveExtraInfo;
         }
+        return !skipRow && binder.slot(col) != null;
+    }
 
-        // gracefully handle missing CellRef here in a similar way as XSSFCell does
-        if (cellReference == null) {
-            cellReference = new CellAddress(currentRow, currentCol).formatAsString();
+    void cell(int col, String formattedValue) {
+        if ((currentRow < startRow && !haveExtraInfo) || skipRow) {
+            return;
+        }
+
+        if (firstCellOfRow) {
+            firstCellOfRow = false;
         }
 
-        currentCol = (int) (new CellReference(cellReference)).getCol();
+        currentCol = col;
 
         if((currentRow+1) < startRow && haveExtraInfo) {
 
@@ -130,25 +164,15 @@ public class SheetToCSV<T> extends ReaderConverterAndValidator implements XSSFSh
         } else {
 
             extraInfoListIndex = 0;
-            Field field = fieldIndexes.get(currentCol);
-            if (null != field) {
+            RowBinder.Slot slot = binder.slot(currentCol);
+            if (null != slot) {
                 try {
-                    Object    cellValue = formattedValue;
-                    Converter converter = fieldConverters.get(field);
-                    if (null != converter) {
-                        cellValue = converter.stringToR(formattedValue, field.getType());
-                    }
-                    field.set(row, cellValue);
-
-                    Validator validator = fieldValidators.get(field);
-                    if(null != validator) {
-                        String validError = validator.valid(cellValue);
-                        if(validError != null) {
-                            throw new ReaderException(validError);
-                        }
-                    }
+                    Object cellValue = slot.convert(formattedValue);
+                    slot.set(row, cellValue);
+
+                    slot.valid(cellValue);
                 } catch (Exception e) {
-                    log.error("write field {} value fail", field.getName(), e);
+                    log.error("write field {} value fail", slot.name(), e);
                     if(recordErrorMsg) {
                         recordErrorMsg(row, e.getMessage());
                     } else {
@@ -162,7 +186,11 @@ public class SheetToCSV<T> extends ReaderConverterAndValidator implements XSSFSh
 
     @Override
     public void endSheet() {
-        gridSheet.calTotalRow();
+        if (gridSheet.data() != null) {
+            gridSheet.calTotalRow();
+        } else {
+            gridSheet.setTotalRow(rowCount);
+        }
         gridSheetBuilder.add(gridSheet);
     }
 
@@ -176,6 +204,14 @@ public class SheetToCSV<T> extends ReaderConverterAndValidator implements XSSFSh
 
     public void gridSheet(GridSheet<T> gridSheet) {
         this.gridSheet = gridSheet;
+        this.rowCount = 0;
+    }
+
+    /**
+     * @return 已经读够limit行，后面的sheet不需要再解析
+     */
+    public boolean isFull() {
+        return rowRange.isFull();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,11 @@
+package cn.jianchengwang.tl.poi.excel.reader;
+
+/**
+ * 用于提前终止解析(例如流式读取的消费方已经关闭)，由各个reader捕获后正常结束，不作为错误抛出
+ */
+class StopReadException extends RuntimeException {
+
+    StopReadException() {
+        super(null, null, false, false);
+    }
+}
@@ -1,14 +1,16 @@
 package cn.jianchengwang.tl.poi.excel.validator;
 
-import java.util.HashMap;
+import cn.jianchengwang.tl.common.E;
+
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by wjc on 2019/9/17
  **/
 public class ValidatorCache {
 
-    private static final Map<Class<? extends Validator>, Validator> VALIDATOR_MAP = new HashMap<>(64);
+    private static final Map<Class<? extends Validator>, Validator> VALIDATOR_MAP = new ConcurrentHashMap<>(64);
 
     static {
         VALIDATOR_MAP.put(EmailValidator.class, new EmailValidator());
@@ -25,4 +27,17 @@ public class ValidatorCache {
             Class<? extends Validator> type) {
         return VALIDATOR_MAP.get(type);
     }
+
+    /**
+     * 取出已注册的校验器，没有时创建并注册，同一类型只会保留一个实例
+     */
+    public static Validator getOrCreate(Class<? extends Validator> type) {
+        return VALIDATOR_MAP.computeIfAbsent(type, key -> {
+            try {
+                return key.newInstance();
+            } catch (Exception e) {
+                throw E.invalidConfiguration(e);
+            }
+        });
+    }
 }
@@ -2,7 +2,6 @@ package cn.jianchengwang.tl.poi.excel.writer;
 
 import cn.jianchengwang.tl.common.EnumTool;
 import cn.jianchengwang.tl.common.S;
-import cn.jianchengwang.tl.poi.excel.Const;
 import cn.jianchengwang.tl.poi.excel.Writer;
 import cn.jianchengwang.tl.poi.excel.annotation.ExcelColumn;
 import cn.jianchengwang.tl.poi.excel.config.GridSheet;
@@ -10,28 +9,28 @@ import cn.jianchengwang.tl.poi.excel.config.extrainfo.ExtraInfo;
 import cn.jianchengwang.tl.poi.excel.config.extrainfo.Info;
 import cn.jianchengwang.tl.poi.excel.config.option.Options;
 import cn.jianchengwang.tl.poi.excel.config.style.StyleConfig;
-import cn.jianchengwang.tl.poi.excel.converter.*;
 import cn.jianchengwang.tl.poi.excel.enums.ExcelType;
 import cn.jianchengwang.tl.poi.excel.exception.WriterException;
-import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.ss.util.CellRangeAddressList;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
 import org.apache.poi.xssf.usermodel.XSSFClientAnchor;
 import org.apache.poi.xssf.usermodel.XSSFRichTextString;
 
+import java.io.IOException;
 import java.io.OutputStream;
-import java.lang.reflect.Field;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.Predicate;
 
 @Slf4j
 public abstract class ExcelWriter {
 
     private int                 rowNum;
-    private Map<Integer, Field> fieldIndexes;
+    private RowPlan             rowPlan;
     private List<ExcelColumn> columns;
 
     Workbook workbook;
@@ -40,6 +39,19 @@ public abstract class ExcelWriter {
     private CreationHelper factory;
     private ExcelType excelType;
 
+    static final int    MAX_EXPLICIT_OPTIONS  = 100; // 超过这个数量的下拉选项放到隐藏sheet中，通过名称引用
+    static final int    MAX_EXPLICIT_OPTIONS_LENGTH = 255; // excel限制直接写进校验的下拉选项连同逗号最长255个字符
+    static final String OPTIONS_SHEET_NAME    = "tl_options"; // 存放下拉选项的隐藏sheet
+    static final int    MAX_SHEET_NAME_LENGTH = 31; // excel限制sheet名称最长31个字符
+
+    private final Map<Class<? extends Options>, String[]> optionsCache = new HashMap<>(); // 下拉选项数据源，每个Options只实例化一次
+    private final Map<Class<? extends Options>, Name> optionsNames = new LinkedHashMap<>(); // 放到隐藏sheet中的下拉选项对应的名称
+    private Sheet optionsSheet;
+
+    private final Set<String> sheetNames = new HashSet<>(); // 配置的所有sheet名称，续写sheet不能占用
+
+    private StyleRegistry styles; // 样式、字体按workbook去重
+
     ExcelWriter(OutputStream outputStream) {
         this.outputStream = outputStream;
     }
@@ -50,13 +62,19 @@ public abstract class ExcelWriter {
     void writeSheet(Writer writer) throws WriterException {
 
         factory = workbook.getCreationHelper();
+        styles = new StyleRegistry(workbook);
         excelType = writer.getExcelType();
 
         Collection<GridSheet> gridSheetList = writer.getGridSheetList();
+        for(GridSheet gridSheet : gridSheetList) {
+            sheetNames.add(gridSheet.sheetName());
+        }
         for(GridSheet gridSheet : gridSheetList) {
             writeSheet0(writer, gridSheet);
         }
 
+        this.finishOptionsSheet();
+
         // write to OutputStream
         try (OutputStream os = outputStream) {
             workbook.write(os);
@@ -81,27 +99,26 @@ public abstract class ExcelWriter {
      */
     void writeSheet0(Writer writer, GridSheet gridSheet) throws WriterException {
 
+        // 分组写出时每个分组值一个sheet，在分组的第一行数据到达时创建
+        boolean grouped = gridSheet.groupBy() && !writer.withRaw();
+
         // create sheet
-        Sheet sheet = workbook.createSheet(gridSheet.sheetName());
+        Sheet sheet = grouped ? null : workbook.createSheet(gridSheet.sheetName());
 
         // create draw
-        Drawing draw = sheet.createDrawingPatriarch();
+        Drawing draw = grouped ? null : sheet.createDrawingPatriarch();
 
-        // setting styles
-        CellStyle headerStyle = Const.DEFAULT_STYLE.defaultHeaderStyle(workbook);
-        CellStyle columnStyle = Const.DEFAULT_STYLE.defaultColumnStyle(workbook);
-        CellStyle titleStyle  = Const.DEFAULT_STYLE.defaultTitleStyle(workbook);
+        // setting styles，默认样式每个workbook只创建一次，StyleConfig的结果按属性去重
+        CellStyle headerStyle = styles.defaultHeaderStyle();
+        CellStyle columnStyle = styles.defaultColumnStyle();
 
         StyleConfig styleConfig = gridSheet.styleConfig();
         if(styleConfig != null) {
-            if (null != styleConfig.titleStyle()) {
-                titleStyle = styleConfig.titleStyle().accept(workbook, titleStyle);
-            }
             if (null != styleConfig.headerStyle()) {
-                headerStyle = styleConfig.headerStyle().accept(workbook, headerStyle);
+                headerStyle = styles.resolve(styleConfig.headerStyle(), headerStyle);
             }
             if (null != styleConfig.cellStyle()) {
-                columnStyle = styleConfig.cellStyle().accept(workbook, columnStyle);
+                columnStyle = styles.resolve(styleConfig.cellStyle(), columnStyle);
             }
 
         }
@@ -110,46 +127,247 @@ public abstract class ExcelWriter {
             writer.sheetConsumer().accept(sheet);
         } else {
             // compute the Filed to be written
-            Collection<?> rows   = gridSheet.data();
-            Field[]       fields = rows.iterator().next().getClass().getDeclaredFields();
-
-            this.fieldIndexes = new HashMap<>(fields.length);
-            this.columns = new ArrayList<>();
-
-            for (Field field : fields) {
-                ExcelColumn column = field.getAnnotation(ExcelColumn.class);
-                if (null != column) {
-                    field.setAccessible(true);
-                    fieldIndexes.put(column.index(), field);
-                    columns.add(column);
+            Iterator<?> rows  = gridSheet.rows();
+            Object firstRow   = rows.hasNext() ? rows.next() : null;
+            Class<?> rowClass = null != firstRow ? firstRow.getClass() : gridSheet.clazz();
+            if (null == rowClass) {
+                throw new WriterException("sheet [" + gridSheet.sheetName() + "] has no data and no class");
+            }
+
+            this.rowPlan = RowPlan.of(rowClass);
+            this.columns = rowPlan.annotations();
+
+            if (grouped) {
+                try {
+                    this.writeGroupedRows(writer, gridSheet, firstRow, rows, headerStyle, columnStyle);
+                } catch (WriterException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new WriterException("sheet [" + gridSheet.sheetName() + "] write grouped row error", e);
+                }
+                return;
+            }
+
+            try {
+                // write extraInfo and column header
+                this.rowNum = this.writeSheetHead(sheet, draw, gridSheet, headerStyle, columnStyle);
+
+                // write rows, 写满一个sheet后续写到name_2、name_3...，表头重复
+                CellStyle[] columnStyles = this.columnStyles(columnStyle);
+                int firstDataRow = this.rowNum;
+                int rowLimit = this.rowLimit(writer, firstDataRow);
+                long totalRow = 0;
+                int part = 1;
+
+                try (RowPipeline cellRows = new RowPipeline(rowPlan, firstRow, rows, writer.parallelism())) {
+                    while (cellRows.hasNext()) {
+                        if (this.rowNum >= rowLimit) {
+                            this.writeColOptions(sheet, firstDataRow, this.rowNum - 1);
+                            totalRow += this.rowNum - firstDataRow;
+
+                            sheet = workbook.createSheet(this.nextSheetName(gridSheet.sheetName(), ++part));
+                            draw = sheet.createDrawingPatriarch();
+                            this.writeColHeader(sheet, draw, gridSheet, 0, headerStyle);
+                            this.rowNum = gridSheet.headLineRow();
+                            firstDataRow = this.rowNum;
+                            rowLimit = this.rowLimit(writer, firstDataRow);
+                        }
+                        this.writeRow(sheet, cellRows.next(), columnStyles);
+                    }
                 }
+                gridSheet.setTotalRow(totalRow + this.rowNum - firstDataRow);
+
+                // write options, one validation per column
+                this.writeColOptions(sheet, firstDataRow, this.rowNum - 1);
+            } catch (WriterException e) {
+                throw e;
+            } catch (Exception e) {
+                // 数据源(Stream、Iterator、分页)中途失败时不能当作写完，否则调用方拿到的是不完整的文件
+                throw new WriterException("sheet [" + gridSheet.sheetName() + "] write row error", e);
             }
+        }
+    }
+
+    /**
+     * 写附加信息和表头
+     *
+     * @return 第一行数据的行号
+     */
+    private int writeSheetHead(Sheet sheet, Drawing draw, GridSheet gridSheet, CellStyle headerStyle, CellStyle columnStyle) throws Exception {
+        int colRowIndex = 0;
+
+        // write extraInfo
+        if(gridSheet.extraInfo()!=null && gridSheet.extraInfo().haveExtraInfo()) {
+            this.writeExtraInfo(sheet, draw, gridSheet, headerStyle, columnStyle);
 
-            int colRowIndex = 0;
+            colRowIndex += (gridSheet.extraInfo().row() + 1);
+        }
+
+        int firstDataRow = gridSheet.startRow();
+        if (firstDataRow == 0) {
+            firstDataRow = colRowIndex + gridSheet.headLineRow();
+        }
 
-            // write extraInfo
-            if(gridSheet.extraInfo()!=null && gridSheet.extraInfo().haveExtraInfo()) {
-                this.writeExtraInfo(sheet, draw, gridSheet, headerStyle, columnStyle);
+        // write column header
+        this.writeColHeader(sheet, draw, gridSheet, colRowIndex, headerStyle);
+        return firstDataRow;
+    }
 
-                colRowIndex += (gridSheet.extraInfo().row() + 1);
+    /**
+     * 按groupBy字段分sheet写出，数据只遍历一遍：每一行直接写到所属分组的sheet，sheet名称为分组值
+     * xlsx每个sheet在内存中最多保留bufferSize行，内存中有行的分组sheet超过writer.maxOpenGroupSheets()时，
+     * 把最久没有写入的分组sheet的行刷到临时文件并关闭文件句柄；数据已经按分组字段排序时，分组切换就把上一个分组的行刷出
+     */
+    private void writeGroupedRows(Writer writer, GridSheet gridSheet, Object firstRow, Iterator<?> rows,
+                                  CellStyle headerStyle, CellStyle columnStyle) throws Exception {
+        CellStyle[] columnStyles = this.columnStyles(columnStyle);
+        int keyIndex = rowPlan.columns().size();
+        int maxOpen = writer.maxOpenGroupSheets();
+        boolean sorted = gridSheet.groupSorted();
+
+        Map<String, GroupSheet> groups = new LinkedHashMap<>();
+        Map<String, GroupSheet> openGroups = new LinkedHashMap<>(16, 0.75f, true); // 内存中有行的分组，按最近写入排序
+        String currentKey = null;
+        GroupSheet current = null;
+
+        try (RowPipeline cellRows = new RowPipeline(rowPlan, firstRow, rows, writer.parallelism(), true, gridSheet.groupByToString())) {
+            while (cellRows.hasNext()) {
+                Object[] cells = cellRows.next();
+                String key = (String) cells[keyIndex];
+
+                // 和上一行同一个分组时不需要查找
+                if (!key.equals(currentKey)) {
+                    if (sorted && null != current) {
+                        current.flush();
+                        openGroups.remove(currentKey);
+                    }
+                    current = groups.get(key);
+                    if (null == current) {
+                        current = new GroupSheet(this.groupSheetName(key, gridSheet.sheetName()));
+                        current.open(writer, gridSheet, headerStyle, columnStyle);
+                        groups.put(key, current);
+                    }
+                    currentKey = key;
+                }
+
+                if (current.rowNum >= current.rowLimit) {
+                    current.rollover(writer, gridSheet, headerStyle);
+                }
+                this.writeRow(current.sheet, current.rowNum++, cells, columnStyles);
+
+                if (!sorted) {
+                    openGroups.put(key, current);
+                    if (openGroups.size() > maxOpen) {
+                        Iterator<GroupSheet> eldest = openGroups.values().iterator();
+                        eldest.next().flush();
+                        eldest.remove();
+                    }
+                }
             }
+        }
+
+        // 没有数据时也写出一个只有表头的sheet
+        if (groups.isEmpty()) {
+            GroupSheet empty = new GroupSheet(gridSheet.sheetName());
+            empty.open(writer, gridSheet, headerStyle, columnStyle);
+            groups.put(gridSheet.sheetName(), empty);
+        }
+
+        long totalRow = 0;
+        for (GroupSheet group : groups.values()) {
+            this.writeColOptions(group.sheet, group.firstDataRow, group.rowNum - 1);
+            totalRow += group.totalRow + group.rowNum - group.firstDataRow;
+        }
+        gridSheet.setTotalRow(totalRow);
+    }
+
+    /**
+     * 分组值转换成合法的sheet名称，空值使用配置的sheet名称，重名时顺延为name_2、name_3...
+     */
+    private String groupSheetName(String key, String defaultName) {
+        String name = WorkbookUtil.createSafeSheetName(S.isNotEmpty(key) ? key : defaultName);
+        if (null == workbook.getSheet(name) && !sheetNames.contains(name)) {
+            return name;
+        }
+        return this.nextSheetName(name, 2);
+    }
+
+    /**
+     * 一个分组当前写入的sheet
+     */
+    private class GroupSheet {
+        private final String name; // 分组sheet名称，写满后续写到name_2、name_3...
+        private Sheet sheet;
+        private int rowNum;
+        private int firstDataRow;
+        private int rowLimit;
+        private int part = 1;
+        private long totalRow; // 已经写满的续写sheet的行数
+
+        GroupSheet(String name) {
+            this.name = name;
+        }
 
-            this.rowNum = gridSheet.startRow();
-            if (this.rowNum == 0) {
-                this.rowNum = colRowIndex + gridSheet.headLineRow();
+        void open(Writer writer, GridSheet gridSheet, CellStyle headerStyle, CellStyle columnStyle) throws Exception {
+            this.sheet = workbook.createSheet(name);
+            this.firstDataRow = writeSheetHead(sheet, sheet.createDrawingPatriarch(), gridSheet, headerStyle, columnStyle);
+            this.rowNum = firstDataRow;
+            this.rowLimit = rowLimit(writer, firstDataRow);
+        }
+
+        void rollover(Writer writer, GridSheet gridSheet, CellStyle headerStyle) throws Exception {
+            writeColOptions(sheet, firstDataRow, rowNum - 1);
+            this.totalRow += rowNum - firstDataRow;
+            // 写满的sheet不会再写入
+            this.flush();
+
+            this.sheet = workbook.createSheet(nextSheetName(name, ++part));
+            writeColHeader(sheet, sheet.createDrawingPatriarch(), gridSheet, 0, headerStyle);
+            this.rowNum = gridSheet.headLineRow();
+            this.firstDataRow = rowNum;
+            this.rowLimit = rowLimit(writer, firstDataRow);
+        }
+
+        /**
+         * 把内存中的行刷到临时文件并关闭临时文件的句柄，只有xlsx(SXSSF)需要；
+         * 之后这个分组再有数据时重新打开，打开的句柄数和内存中有行的分组数一样不超过maxOpenGroupSheets
+         */
+        void flush() throws IOException {
+            if (sheet instanceof SXSSFSheet) {
+                ((SXSSFSheet) sheet).flushRows();
+            }
+            if (workbook instanceof TempFileWorkbook) {
+                ((TempFileWorkbook) workbook).park(sheet);
             }
+        }
+    }
 
-            try {
-                // write column header
-                this.writeColHeader(sheet, draw, gridSheet, colRowIndex, headerStyle);
+    /**
+     * 当前sheet可以写到的行号(不包含)，取excel格式的最大行数和writer配置的每个sheet最大数据行数中较小的
+     */
+    private int rowLimit(Writer writer, int firstDataRow) {
+        int maxRows = workbook.getSpreadsheetVersion().getMaxRows();
+        if (writer.maxRowsPerSheet() > 0) {
+            return (int) Math.min(maxRows, (long) firstDataRow + writer.maxRowsPerSheet());
+        }
+        return maxRows;
+    }
 
-                // write rows
-                for (Object row : rows) {
-                    this.writeRow(sheet, row, columnStyle);
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                log.error("write row fail", e);
+    /**
+     * 续写sheet的名称，超长时截断原名称，和已有或者后面要写的sheet重名时顺延
+     */
+    private String nextSheetName(String sheetName, int part) {
+        return nextSheetName(sheetName, part, name -> null != workbook.getSheet(name) || sheetNames.contains(name));
+    }
+
+    static String nextSheetName(String sheetName, int part, Predicate<String> taken) {
+        while (true) {
+            String suffix = "_" + part++;
+            String name = sheetName.length() + suffix.length() > MAX_SHEET_NAME_LENGTH
+                    ? sheetName.substring(0, MAX_SHEET_NAME_LENGTH - suffix.length()) + suffix
+                    : sheetName + suffix;
+            if (!taken.test(name)) {
+                return name;
             }
         }
     }
@@ -216,261 +434,168 @@ public abstract class ExcelWriter {
 
 
 
-    @Data
-    private class Node {
-        private String text; // 文本信息
-        private Integer width; //这个单元格应该在Excel中占有的宽度
-        private Integer deep; // 单元格深度
-        private Map<String, Node> map; // 子节点 map 集合
-        private ExcelColumn column; // excel注解
-
-        public Node(String text, Integer width, Integer deep) {
-            this.text = text;
-            this.width = width;
-            this.deep = deep;
-
-            this.map = new LinkedHashMap<>();
-        }
-
-        public Node(String text, Integer width) {
-            this.text = text;
-            this.width = width;
+    /**
+     * 按类预先计算好的表头布局创建单元格、合并区域、列宽和注释
+     */
+    private void writeColHeader(Sheet sheet, Drawing draw, GridSheet table, int rowIndex, CellStyle headerStyle) {
+        HeaderLayout layout = rowPlan.headerLayout(table.headLineRow() != 1);
 
-            this.map = new LinkedHashMap<>();
-        }
-        public Node(String text) {
-            this.text = text;
-            this.map = new LinkedHashMap<>();
-        }
-        public Node() {
-            this.map = new LinkedHashMap<>();
+        Row[] rows = new Row[layout.rowCount()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = sheet.createRow(rowIndex + i);
         }
 
-        // 添加节点
-        void add(String[] text, Integer width) {
-
-            Map<String, Node> rootMap = map;
-
-            Node node =  null;
-            //读到叶子结点的前一个结点处
-            for (int i = 0; i < text.length-1; i++) {
-                //逐层目录读取，如果没有get到，就创建一个新的目录
-                node = rootMap.get(text[i]);
-                if (node == null) {
-                    node = new Node(text[i]);
-                    rootMap.put(text[i], node);
-                }
-                //新目录的大小要同步上
-                if(node.getWidth() == null) node.setWidth(Const.DEFAULT_COLUMN_WIDTH);
-                node.setWidth(node.getWidth() + width);
-
-                // 设置深度
-                if(node.getDeep() == null) node.setDeep(i);
-
-                rootMap = node.getMap();
+        for (HeaderLayout.HeaderCell headerCell : layout.cells()) {
+            Cell cell = rows[headerCell.row()].createCell(headerCell.col());
+            if (null != headerStyle) {
+                cell.setCellStyle(headerStyle);
             }
-            //此时的rootMap就是叶子结点所在的目录
-            rootMap.put(text[text.length - 1], new Node(text[text.length - 1], width, text.length - 1));
-
-            //还要给这个文件的父文件夹设置deep
-            if (node != null) {
-                node.setDeep(text.length - 2);
+            if (null != headerCell.text()) {
+                cell.setCellValue(headerCell.text());
             }
-        }
-
-
-
-        // 得到节点集合
-        List<Node> parse(List<ExcelColumn> columns) {
-            List<Node> list = new ArrayList<>();
-            for (Map.Entry<String, Node> entry : map.entrySet()) {
-                //先把自己保存进去
-                list.add(entry.getValue());
-                //如果该节点的map不是空集合，证明这是一个“文件夹”（根节点）
-                //需要把自己add进去的同时，把它的孩子也全部add进去
-                if (entry.getValue().getMap() != null && entry.getValue().getMap().size() > 0) {
-                    list.addAll(entry.getValue().parse(columns));
-                }
+            if (headerCell.width() > 0) {
+                sheet.setColumnWidth(headerCell.col(), headerCell.width());
             }
-            return list;
-        }
-
-        // 计算深度
-        int getDeepLength() {
-            if (map.isEmpty()) {
-                return 0;
-            }
-            List<Integer> list = new ArrayList<>();
-            for (Map.Entry<String, Node> entry : map.entrySet()) {
-                list.add(entry.getValue().getDeepLength());
+            if (null != headerCell.comment()) {
+                int[] region = headerCell.commentRegion();
+                writeColComment(cell, draw, headerCell.comment(),
+                        region[0] + rowIndex, region[1] + rowIndex, region[2], region[3]);
             }
-            Collections.sort(list);
-            return list.get(list.size() - 1) + 1;
         }
 
-        // 获取该结点下的所有叶子节点的数量
-        int getChildrenCount() {
-            if (map.isEmpty()) {
-                return 1; //就自己一个
-            }
-            int count = 0;
-            for (Map.Entry<String, Node> entry : map.entrySet()) {
-                count += entry.getValue().getChildrenCount();
-            }
-            return count;
+        for (int[] region : layout.mergedRegions()) {
+            sheet.addMergedRegion(new CellRangeAddress(region[0] + rowIndex, region[1] + rowIndex, region[2], region[3]));
         }
+    }
 
-        List<Node> build(List<ExcelColumn> columns) {
+    private void writeColOptions(Sheet sheet, int firstRow, int lastRow) throws Exception {
+        if (lastRow < firstRow) {
+            return;
+        }
 
-            for(ExcelColumn column: columns) {
-                add(new String[] {column.header()}, column.width()>0? column.width(): Const.DEFAULT_COLUMN_WIDTH);
+        DataValidationHelper validationHelper = sheet.getDataValidationHelper();
+        for (ExcelColumn column : columns) {
+            String[] datasource = getOptions(column.options());
+            if (null == datasource || datasource.length == 0) {
+                continue;
             }
 
-            return parse(columns);
-
+            DataValidationConstraint constraint;
+            if (!isExplicitOptions(datasource)) {
+                constraint = validationHelper.createFormulaListConstraint(getOptionsName(column.options(), datasource));
+            } else if (excelType == ExcelType.XLS) {
+                constraint = validationHelper.createExplicitListConstraint(datasource);
+            } else {
+                // xlsx的校验公式是原样拼接的，选项中的双引号需要转义
+                String[] quoted = new String[datasource.length];
+                for (int i = 0; i < datasource.length; i++) {
+                    quoted[i] = datasource[i].replace("\"", "\"\"");
+                }
+                constraint = validationHelper.createExplicitListConstraint(quoted);
+            }
+            CellRangeAddressList regions = new CellRangeAddressList(firstRow, lastRow, column.index(),
+                    column.index());
+            DataValidation validation = validationHelper
+                    .createValidation(constraint, regions);
+            validation.setSuppressDropDownArrow(true);
+            validation.createErrorBox("提示", "请从下拉列表选取");
+            validation.setShowErrorBox(true);
+            sheet.addValidationData(validation);
         }
     }
-    private void writeColHeader(Sheet sheet, Drawing draw, GridSheet table, int rowIndex, CellStyle headerStyle) throws Exception {
 
-        if(table.headLineRow() == 1) {
-            writeSingleHeader(sheet, draw, rowIndex, headerStyle);
-        } else {
-            writeMultiHeader(sheet, draw, rowIndex, headerStyle);
+    private String[] getOptions(Class<? extends Options> clazz) throws Exception {
+        if (null == clazz || ExcelColumn.Void.class.equals(clazz)) {
+            return null;
+        }
+        String[] datasource = optionsCache.get(clazz);
+        if (datasource == null) {
+            datasource = newOptions(clazz);
+            optionsCache.put(clazz, datasource);
         }
+        return datasource;
     }
 
-    private void writeSingleHeader(Sheet sheet, Drawing draw, int rowIndex, CellStyle headerStyle) {
-        Row rowHead = sheet.createRow(rowIndex);
-        for (ExcelColumn column : columns) {
-            Cell cell = rowHead.createCell(column.index());
-            if (null != headerStyle) {
-                cell.setCellStyle(headerStyle);
-            }
-            cell.setCellValue(column.header());
-            if (column.width() > 0) {
-                sheet.setColumnWidth(column.index(), column.width());
-            } else {
-                sheet.setColumnWidth(column.index(), Const.DEFAULT_COLUMN_WIDTH);
+    /**
+     * 下拉选项能否直接写进数据校验：数量和总长度都不超过excel的限制，且选项中没有作为分隔符的逗号
+     */
+    static boolean isExplicitOptions(String[] datasource) {
+        if (datasource.length > MAX_EXPLICIT_OPTIONS) {
+            return false;
+        }
+        int length = datasource.length - 1;
+        for (String option : datasource) {
+            if (null == option || option.indexOf(',') >= 0) {
+                return false;
             }
-
-            writeColComment(cell, draw, column.comment(), rowIndex, rowIndex, column.index(), column.index());
+            length += option.length();
         }
+        return length <= MAX_EXPLICIT_OPTIONS_LENGTH;
     }
 
-    private void writeMultiHeader(Sheet sheet, Drawing draw, int rowIndex, CellStyle headerStyle) {
-        // 迭代Map集合，并重构一套“根目录”
-        Node root = new Node();
-        List<Node> nodes = root.build(columns);
-
-        int rootDeepLength = root.getDeepLength();
-
-        // 创建多个行，并用数组存储
-        Row[] rows = new Row[rootDeepLength];
-        for (int i = 0; i < rows.length; i++) {
-            rows[i] = sheet.createRow(rowIndex + i);
+    /**
+     * 实例化Options取下拉选项，调用方按writer缓存
+     */
+    static String[] newOptions(Class<? extends Options> clazz) throws Exception {
+        Options options;
+        if(clazz.isEnum()) {
+            options = EnumTool.getFirstValue(clazz); // 枚举不能new产生，所以这里折中通过遍历获取第一个枚举对象
+        } else {
+            options = clazz.newInstance();
         }
+        String[] datasource = options.get();
+        return datasource == null ? new String[0] : datasource;
+    }
 
-        int columnIndex = 0;
-        int colIndex = 0;
-        int firstRow = 0;
-        int lastRow = 0;
-        int firstCol = 0;
-        int lastCol = 0;
-        for (Node node : nodes) {
-
-            if (node.map.size() == 0) {
-                node.column = columns.get(columnIndex++);
-            }
-
-            firstRow = 0;
-            lastRow = 0;
-            firstCol = colIndex;
-            lastCol = colIndex;
-
-            //获取该节点的深度
-            int deep = node.getDeep();
-            System.out.println(deep);
-            //从下往上取行，向右创建
-
-            for (int i = 0; i <= deep; i++) {
-
-                if(rows[i].getCell(colIndex) == null) {
-                    rows[i].createCell(colIndex);
-
-                    if(firstRow == 0) firstRow = i;
-                    lastRow = i;
-                }
-            }
-            Cell cell = rows[deep].getCell(colIndex);
-            cell.setCellValue(node.getText());
-
-            if(node.map.size() > 0) {
-                colIndex += node.map.size() - 1;
-                lastCol = colIndex;
-
-            } else {
-                colIndex++;
-
-                if(node.deep> 0 && node.getChildrenCount() == 1) {
-                    lastRow = rootDeepLength - node.getDeep();
-
-                } else {
-                    lastRow = rootDeepLength - node.getDeep() - node.getChildrenCount();
-                }
-            }
+    /**
+     * 下拉选项太多时不能直接写进数据校验，写到隐藏sheet的一列中，再定义一个名称引用这一列
+     */
+    private String getOptionsName(Class<? extends Options> clazz, String[] datasource) {
+        Name namedRange = optionsNames.get(clazz);
+        if (namedRange != null) {
+            return namedRange.getNameName();
+        }
 
-            if(node.deep >= 0 && node.map.size() > 1) {
-                colIndex--;
+        if (optionsSheet == null) {
+            optionsSheet = workbook.createSheet(OPTIONS_SHEET_NAME);
+        }
+        int col = optionsNames.size();
+        for (int i = 0; i < datasource.length; i++) {
+            Row row = optionsSheet.getRow(i);
+            if (row == null) {
+                row = optionsSheet.createRow(i);
             }
+            row.createCell(col).setCellValue(datasource[i]);
+        }
 
-            if(lastRow > firstRow || lastCol > firstCol) {
-
-                // 合并父节点单元格
-                if(lastCol > firstCol && firstRow > 0) {
-                    sheet.addMergedRegion(new CellRangeAddress(firstRow+rowIndex-1, firstRow+rowIndex-1, firstCol, lastCol));
-                }
+        namedRange = workbook.createName();
+        namedRange.setNameName(OPTIONS_SHEET_NAME + "_" + col);
+        namedRange.setRefersToFormula(optionsRefersTo(col, datasource.length));
+        optionsNames.put(clazz, namedRange);
+        return namedRange.getNameName();
+    }
 
-                // 合并当前节点单元格
-                sheet.addMergedRegion(new CellRangeAddress(firstRow+rowIndex, lastRow+rowIndex, firstCol, lastCol));
-            }
+    /**
+     * 下拉选项sheet放到最后并隐藏，不影响数据sheet的顺序
+     */
+    private void finishOptionsSheet() {
+        if (optionsSheet == null) {
+            return;
+        }
 
-            if(node.map.size() == 0 && node.getColumn()!=null) {
-                writeColComment(cell, draw,  node.getColumn().comment(),firstRow+rowIndex, lastRow+rowIndex, firstCol, lastCol);
-            }
+        workbook.setSheetOrder(OPTIONS_SHEET_NAME, workbook.getNumberOfSheets() - 1);
+        workbook.setSheetHidden(workbook.getSheetIndex(optionsSheet), true);
 
+        // xls的名称按sheet位置引用，调整顺序后重新设置一次
+        int col = 0;
+        for (Map.Entry<Class<? extends Options>, Name> entry : optionsNames.entrySet()) {
+            entry.getValue().setRefersToFormula(optionsRefersTo(col++, optionsCache.get(entry.getKey()).length));
         }
     }
 
-    private void writeColOptions(Sheet sheet, ExcelColumn column,
-                                 int firstRow, int lastRow, int firstCell, int lastCell) throws Exception {
-
-        if (null != column.options()) {
-            Options options;
-            Class clazz = column.options();
-            if(clazz.isEnum()) {
-                options = EnumTool.getFirstValue(clazz); // 枚举不能new产生，所以这里折中通过遍历获取第一个枚举对象
-            } else {
-                options = column.options().newInstance();
-            }
-            String[] datasource =  options.get();
-            if (null != datasource && datasource.length > 0) {
-                if (datasource.length > 100) {
-                    throw new WriterException("Options item too much.");
-                }
-
-                DataValidationHelper validationHelper = sheet.getDataValidationHelper();
-                DataValidationConstraint explicitListConstraint = validationHelper
-                        .createExplicitListConstraint(datasource);
-                CellRangeAddressList regions = new CellRangeAddressList(firstRow, lastRow, firstCell,
-                        lastCell);
-                DataValidation validation = validationHelper
-                        .createValidation(explicitListConstraint, regions);
-                validation.setSuppressDropDownArrow(true);
-                validation.createErrorBox("提示", "请从下拉列表选取");
-                validation.setShowErrorBox(true);
-                sheet.addValidationData(validation);
-            }
-        }
+    private String optionsRefersTo(int col, int length) {
+        String colName = CellReference.convertNumToColString(col);
+        return "'" + OPTIONS_SHEET_NAME + "'!$" + colName + "$1:$" + colName + "$" + length;
     }
 
     private void writeColComment(Cell cell, Drawing draw, String comment,
@@ -483,8 +608,7 @@ public abstract class ExcelWriter {
                         new XSSFClientAnchor(0, 0, 0, 0, firstCell, firstRow, lastCell, lastRow));
                 XSSFRichTextString xssfRichTextString = new XSSFRichTextString(
                         comment);
-                Font commentFormatter = workbook.createFont();
-                xssfRichTextString.applyFont(commentFormatter);
+                xssfRichTextString.applyFont(styles.commentFont());
                 cellComment.setString(xssfRichTextString);
                 cell.setCellComment(cellComment);
             } else {
@@ -499,65 +623,55 @@ public abstract class ExcelWriter {
 
     }
 
-    private void writeRow(Sheet sheet, Object instance, CellStyle columnStyle) throws Exception {
-        Row row = sheet.createRow(rowNum++);
-        for (Integer index : fieldIndexes.keySet()) {
+    /**
+     * 每一列的单元格样式，和rowPlan.columns()一一对应，带格式的列共用缓存中的样式
+     */
+    private CellStyle[] columnStyles(CellStyle columnStyle) {
+        List<RowPlan.Column> planColumns = rowPlan.columns();
+        CellStyle[] styles = new CellStyle[planColumns.size()];
+        for (int i = 0; i < styles.length; i++) {
+            styles[i] = this.styles.formatStyle(columnStyle, planColumns.get(i).format());
+        }
+        return styles;
+    }
 
-            Field field = fieldIndexes.get(index);
-            if (null == field) {
-                continue;
-            }
+    private void writeRow(Sheet sheet, Object[] cells, CellStyle[] columnStyles) {
+        this.writeRow(sheet, rowNum++, cells, columnStyles);
+    }
 
-            Object value = field.get(instance);
+    /**
+     * @param cells RowPlan.toCells或toGroupedCells的结果，分组值不写出
+     */
+    private void writeRow(Sheet sheet, int rowIndex, Object[] cells, CellStyle[] columnStyles) {
+        Row row = sheet.createRow(rowIndex);
+        List<RowPlan.Column> planColumns = rowPlan.columns();
+        for (int i = 0, size = planColumns.size(); i < size; i++) {
+            Object value = cells[i];
             if (value == null) {
                 continue;
             }
 
-            Cell cell = row.createCell(index);
-            if (null != columnStyle) {
-                cell.setCellStyle(columnStyle);
-            }
-
-            String fieldValue = computeColumnContent(value, field);
-            cell.setCellValue(fieldValue);
-
-            if(columns.size() > index) {
-                ExcelColumn column = columns.get(index);
-                writeColOptions(sheet, column, rowNum-1, rowNum-1, index, index);
+            Cell cell = row.createCell(planColumns.get(i).index());
+            if (null != columnStyles[i]) {
+                cell.setCellStyle(columnStyles[i]);
             }
 
+            this.writeCellValue(cell, value);
         }
     }
 
-    String computeColumnContent(Object value, Field field) throws Exception {
-        if (field.getType().equals(String.class)) {
-            return value.toString();
-        }
-        ExcelColumn column = field.getAnnotation(ExcelColumn.class);
-        if (!NullConverter.class.equals(column.converter())) {
-            Converter convert = column.converter().newInstance();
-            ConverterCache.addConvert(convert);
-            return convert.toString(value);
+    /**
+     * 写入RowPlan.toCells转换好的值，数字、布尔、日期是excel原生类型
+     */
+    private void writeCellValue(Cell cell, Object value) {
+        if (value instanceof Double) {
+            cell.setCellValue((Double) value);
+        } else if (value instanceof Boolean) {
+            cell.setCellValue((Boolean) value);
+        } else if (value instanceof Date) {
+            cell.setCellValue((Date) value);
         } else {
-            if (S.isNotEmpty(column.dateFormat())) {
-                String content = "";
-                if (Date.class.equals(field.getType())) {
-                    content = new DateConverter(column.dateFormat()).toString((Date) value);
-                } else if (LocalDate.class.equals(field.getType())) {
-                    content = new LocalDateConverter(column.dateFormat()).toString((LocalDate) value);
-                }
-                if (LocalDateTime.class.equals(field.getType())) {
-                    content = new LocalDateTimeConverter(column.dateFormat()).toString((LocalDateTime) value);
-                }
-                return content;
-            } else {
-                Converter converter = ConverterCache.computeConvert(field);
-                if (null != converter) {
-                    return converter.toString(value);
-                } else {
-                    return value.toString();
-                }
-            }
+            cell.setCellValue((String) value);
         }
     }
 
@@ -0,0 +1,295 @@
+package cn.jianchengwang.tl.poi.excel.writer;
+
+import cn.jianchengwang.tl.common.S;
+import cn.jianchengwang.tl.poi.excel.Const;
+import cn.jianchengwang.tl.poi.excel.annotation.ExcelColumn;
+import lombok.Data;
+
+import java.util.*;
+
+/**
+ * 表头布局
+ * 单元格、合并区域、列宽、注释按实体类计算一次(随RowPlan缓存)，和workbook、样式无关，
+ * 每个新sheet(分组、续写)只需要按布局创建单元格，行号都是相对表头第一行的偏移
+ */
+public class HeaderLayout {
+
+    private final int rowCount; // 表头占用的行数
+    private final List<HeaderCell> cells; // 按创建顺序，单行表头按列索引排序
+    private final List<int[]> mergedRegions; // {firstRow, lastRow, firstCol, lastCol}
+
+    private HeaderLayout(int rowCount, List<HeaderCell> cells, List<int[]> mergedRegions) {
+        this.rowCount = rowCount;
+        this.cells = Collections.unmodifiableList(cells);
+        this.mergedRegions = Collections.unmodifiableList(mergedRegions);
+    }
+
+    /**
+     * 单行表头：每列一个单元格，设置列宽和注释
+     */
+    static HeaderLayout single(List<ExcelColumn> columns) {
+        List<HeaderCell> cells = new ArrayList<>(columns.size());
+        for (ExcelColumn column : columns) {
+            HeaderCell cell = new HeaderCell(0, column.index());
+            cell.text = column.header();
+            cell.width = column.width() > 0 ? column.width() : Const.DEFAULT_COLUMN_WIDTH;
+            cell.comment(column.comment(), 0, 0, column.index(), column.index());
+            cells.add(cell);
+        }
+        cells.sort(Comparator.comparingInt(HeaderCell::col));
+        return new HeaderLayout(1, cells, new ArrayList<>());
+    }
+
+    /**
+     * 多行表头：按表头文本构造树，父节点合并子节点所在的列
+     */
+    static HeaderLayout multi(List<ExcelColumn> columns) {
+        // 迭代Map集合，并重构一套“根目录”
+        Node root = new Node();
+        List<Node> nodes = root.build(columns);
+
+        int rootDeepLength = root.getDeepLength();
+
+        Map<Long, HeaderCell> cellMap = new LinkedHashMap<>();
+        List<int[]> mergedRegions = new ArrayList<>();
+
+        int columnIndex = 0;
+        int colIndex = 0;
+        int firstRow;
+        int lastRow;
+        int firstCol;
+        int lastCol;
+        for (Node node : nodes) {
+
+            if (node.map.size() == 0) {
+                node.column = columns.get(columnIndex++);
+            }
+
+            firstRow = 0;
+            lastRow = 0;
+            firstCol = colIndex;
+            lastCol = colIndex;
+
+            //获取该节点的深度
+            int deep = node.getDeep();
+            //从下往上取行，向右创建
+
+            for (int i = 0; i <= deep; i++) {
+
+                if (!cellMap.containsKey(key(i, colIndex))) {
+                    cellMap.put(key(i, colIndex), new HeaderCell(i, colIndex));
+
+                    if (firstRow == 0) firstRow = i;
+                    lastRow = i;
+                }
+            }
+            HeaderCell cell = cellMap.get(key(deep, colIndex));
+            cell.text = node.getText();
+
+            if (node.map.size() > 0) {
+                colIndex += node.map.size() - 1;
+                lastCol = colIndex;
+
+            } else {
+                colIndex++;
+
+                if (node.deep > 0 && node.getChildrenCount() == 1) {
+                    lastRow = rootDeepLength - node.getDeep();
+
+                } else {
+                    lastRow = rootDeepLength - node.getDeep() - node.getChildrenCount();
+                }
+            }
+
+            if (node.deep >= 0 && node.map.size() > 1) {
+                colIndex--;
+            }
+
+            if (lastRow > firstRow || lastCol > firstCol) {
+
+                // 合并父节点单元格
+                if (lastCol > firstCol && firstRow > 0) {
+                    mergedRegions.add(new int[]{firstRow - 1, firstRow - 1, firstCol, lastCol});
+                }
+
+                // 合并当前节点单元格
+                mergedRegions.add(new int[]{firstRow, lastRow, firstCol, lastCol});
+            }
+
+            if (node.map.size() == 0 && node.getColumn() != null) {
+                cell.comment(node.getColumn().comment(), firstRow, lastRow, firstCol, lastCol);
+            }
+        }
+        return new HeaderLayout(rootDeepLength, new ArrayList<>(cellMap.values()), mergedRegions);
+    }
+
+    private static long key(int row, int col) {
+        return ((long) row << 32) | col;
+    }
+
+    public int rowCount() {
+        return rowCount;
+    }
+
+    public List<HeaderCell> cells() {
+        return cells;
+    }
+
+    /**
+     * @return {firstRow, lastRow, firstCol, lastCol}，不要修改
+     */
+    public List<int[]> mergedRegions() {
+        return mergedRegions;
+    }
+
+    /**
+     * 表头的一个单元格
+     */
+    public static class HeaderCell {
+        private final int row;
+        private final int col;
+        private String text; // null表示空单元格
+        private int width; // 列宽，0表示不设置
+        private String comment; // 注释，null表示没有
+        private int[] commentRegion; // 注释框的位置 {firstRow, lastRow, firstCol, lastCol}
+
+        HeaderCell(int row, int col) {
+            this.row = row;
+            this.col = col;
+        }
+
+        private void comment(String comment, int firstRow, int lastRow, int firstCol, int lastCol) {
+            if (S.isNotEmpty(comment)) {
+                this.comment = comment;
+                this.commentRegion = new int[]{firstRow, lastRow, firstCol, lastCol};
+            }
+        }
+
+        public int row() {
+            return row;
+        }
+
+        public int col() {
+            return col;
+        }
+
+        public String text() {
+            return text;
+        }
+
+        public int width() {
+            return width;
+        }
+
+        public String comment() {
+            return comment;
+        }
+
+        public int[] commentRegion() {
+            return commentRegion;
+        }
+    }
+
+    @Data
+    private static class Node {
+        private String text; // 文本信息
+        private Integer width; //这个单元格应该在Excel中占有的宽度
+        private Integer deep; // 单元格深度
+        private Map<String, Node> map; // 子节点 map 集合
+        private ExcelColumn column; // excel注解
+
+        public Node(String text, Integer width, Integer deep) {
+            this.text = text;
+            this.width = width;
+            this.deep = deep;
+
+            this.map = new LinkedHashMap<>();
+        }
+
+        public Node(String text) {
+            this.text = text;
+            this.map = new LinkedHashMap<>();
+        }
+
+        public Node() {
+            this.map = new LinkedHashMap<>();
+        }
+
+        // 添加节点
+        void add(String[] text, Integer width) {
+
+            Map<String, Node> rootMap = map;
+
+            Node node = null;
+            //读到叶子结点的前一个结点处
+            for (int i = 0; i < text.length - 1; i++) {
+                //逐层目录读取，如果没有get到，就创建一个新的目录
+                node = rootMap.get(text[i]);
+                if (node == null) {
+                    node = new Node(text[i]);
+                    rootMap.put(text[i], node);
+                }
+                //新目录的大小要同步上
+                if (node.getWidth() == null) node.setWidth(Const.DEFAULT_COLUMN_WIDTH);
+                node.setWidth(node.getWidth() + width);
+
+                // 设置深度
+                if (node.getDeep() == null) node.setDeep(i);
+
+                rootMap = node.getMap();
+            }
+            //此时的rootMap就是叶子结点所在的目录
+            rootMap.put(text[text.length - 1], new Node(text[text.length - 1], width, text.length - 1));
+
+            //还要给这个文件的父文件夹设置deep
+            if (node != null) {
+                node.setDeep(text.length - 2);
+            }
+        }
+
+        // 得到节点集合
+        List<Node> parse() {
+            List<Node> list = new ArrayList<>();
+            for (Map.Entry<String, Node> entry : map.entrySet()) {
+                //先把自己保存进去
+                list.add(entry.getValue());
+                //如果该节点的map不是空集合，证明这是一个“文件夹”（根节点）
+                //需要把自己add进去的同时，把它的孩子也全部add进去
+                if (entry.getValue().getMap() != null && entry.getValue().getMap().size() > 0) {
+                    list.addAll(entry.getValue().parse());
+                }
+            }
+            return list;
+        }
+
+        // 计算深度
+        int getDeepLength() {
+            int deepLength = 0;
+            for (Node child : map.values()) {
+                deepLength = Math.max(deepLength, child.getDeepLength() + 1);
+            }
+            return deepLength;
+        }
+
+        // 获取该结点下的所有叶子节点的数量
+        int getChildrenCount() {
+            if (map.isEmpty()) {
+                return 1; //就自己一个
+            }
+            int count = 0;
+            for (Node child : map.values()) {
+                count += child.getChildrenCount();
+            }
+            return count;
+        }
+
+        List<Node> build(List<ExcelColumn> columns) {
+
+            for (ExcelColumn column : columns) {
+                add(new String[]{column.header()}, column.width() > 0 ? column.width() : Const.DEFAULT_COLUMN_WIDTH);
+            }
+
+            return parse();
+        }
+    }
+}
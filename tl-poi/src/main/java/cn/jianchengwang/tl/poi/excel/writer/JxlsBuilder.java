@@ -4,7 +4,12 @@ import cn.jianchengwang.tl.common.E;
 import cn.jianchengwang.tl.poi.excel.Const;
 import cn.jianchengwang.tl.poi.excel.Writer;
 import cn.jianchengwang.tl.poi.excel.config.GridSheet;
+import cn.jianchengwang.tl.poi.excel.enums.ExcelType;
 import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
 import org.jxls.area.Area;
 import org.jxls.builder.xls.XlsCommentAreaBuilder;
 import org.jxls.common.CellRef;
@@ -12,8 +17,12 @@ import org.jxls.formula.FastFormulaProcessor;
 import org.jxls.formula.FormulaProcessor;
 import org.jxls.formula.StandardFormulaProcessor;
 import org.jxls.transform.Transformer;
+import org.jxls.transform.jexcel.JexcelTransformer;
+import org.jxls.transform.poi.PoiTransformer;
+import org.jxls.transform.poi.PoiUtil;
 import org.jxls.util.JxlsHelper;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -29,6 +38,7 @@ import cn.jianchengwang.tl.poi.excel.writer.command.*;
  * Created by wjc on 2019/9/3
  **/
 @Data
+@Slf4j
 public class JxlsBuilder {
 
     static {
@@ -39,6 +49,8 @@ public class JxlsBuilder {
 
     private JxlsHelper jxlsHelper = JxlsHelper.getInstance();
     private Transformer transformer;
+    private boolean streaming; // 流式渲染(SXSSF)
+    private List<String> templateSheetNames = new ArrayList<>(); // 流式渲染时改名保留的模板sheet，渲染完删除
 
     public JxlsBuilder(Writer writer) {
         this.writer = writer;
@@ -47,11 +59,74 @@ public class JxlsBuilder {
     private Transformer getTransformer() {
 
         if (transformer == null) {
-            transformer = jxlsHelper.createTransformer(writer.getTemplate(), writer.getOut());
+            if (writer.templateRowWindow() > 0 && writer.getTemplate().excelType() == ExcelType.XLSX) {
+                transformer = this.createSxssfTransformer();
+            } else {
+                if (writer.templateRowWindow() > 0) {
+                    log.warn("streaming template only supports xlsx, render {} template in memory", writer.getTemplate().excelType());
+                }
+                transformer = this.createMemoryTransformer();
+            }
         }
         return transformer;
     }
 
+    /**
+     * 内存渲染：xls模板固定用jexcel(和只依赖jxls-jexcel时一致)，xlsx模板用poi；
+     * 不交给JxlsHelper按classpath选择，避免加了jxls-poi后xls模板换了渲染引擎
+     */
+    private Transformer createMemoryTransformer() {
+        try {
+            if (writer.getTemplate().excelType() == ExcelType.XLS) {
+                return JexcelTransformer.createTransformer(writer.getTemplate().openStream(), writer.getOut());
+            }
+            if (writer.getTemplate().excelType() == ExcelType.XLSX) {
+                return PoiTransformer.createTransformer(writer.getTemplate().openStream(), writer.getOut());
+            }
+            return jxlsHelper.createTransformer(writer.getTemplate().openStream(), writer.getOut());
+        } catch (Exception e) {
+            throw E.unexpected(e);
+        }
+    }
+
+    /**
+     * 流式渲染：模板读成XSSF，输出写到SXSSF，每个sheet内存中只保留templateRowWindow行
+     */
+    private Transformer createSxssfTransformer() {
+        try {
+            Workbook template = WorkbookFactory.create(writer.getTemplate().openStream());
+            PoiTransformer poiTransformer = new StreamingTransformer(template,
+                    writer.templateRowWindow(), writer.compressTempFiles());
+            poiTransformer.setOutputStream(writer.getOut());
+            streaming = true;
+            return poiTransformer;
+        } catch (IOException e) {
+            throw E.unexpected(e);
+        }
+    }
+
+    /**
+     * SXSSF不能写入模板sheet已有的行，区域所在的模板sheet改名保留(单元格数据transformer已经读入)，
+     * 结果写到原位置同名的新sheet，渲染完删除改名的模板sheet
+     * 必须在区域解析之后调用，解析时按当前sheet名称读取批注
+     */
+    private void swapTemplateSheets(List<Area> xlsAreaList) {
+        Workbook workbook = ((PoiTransformer) transformer).getWorkbook();
+        Set<String> sheetNames = xlsAreaList.stream()
+                .map(xlsArea -> xlsArea.getStartCellRef().getSheetName())
+                .collect(Collectors.toSet());
+        for (String sheetName : sheetNames) {
+            int index = workbook.getSheetIndex(sheetName);
+            String templateSheetName = "tl_template_" + index;
+            workbook.setSheetName(index, templateSheetName);
+            templateSheetNames.add(templateSheetName);
+
+            Sheet sheet = workbook.createSheet(sheetName);
+            workbook.setSheetOrder(sheetName, index);
+            PoiUtil.copySheetProperties(workbook.getSheet(templateSheetName), sheet);
+        }
+    }
+
     private void transform() {
 
         boolean isMultiGrid = writer.isMultiGrid();
@@ -72,8 +147,12 @@ public class JxlsBuilder {
                 }
             }
 
-            jxlsHelper.getAreaBuilder().setTransformer(transformer);
+            // 带批注的单元格按模板记下的命令定义取，不再每次渲染都逐个单元格查找批注
+            jxlsHelper.getAreaBuilder().setTransformer(new TemplateTransformer(transformer, writer.getTemplate()));
             List<Area> xlsAreaList = jxlsHelper.getAreaBuilder().build();
+            if (streaming) {
+                this.swapTemplateSheets(xlsAreaList);
+            }
             xlsAreaList.forEach(xlsArea -> {
                 xlsArea.applyAt(new CellRef(xlsArea.getStartCellRef().getCellName()), writer.getContext());
                 if (jxlsHelper.isProcessFormulas()) {
@@ -96,10 +175,18 @@ public class JxlsBuilder {
             if(isMultiGrid) {
                 transformer.deleteSheet(Const.DEFAULT_TEMPLATE_SHEET_NAME); // delete template sheet
             }
+            if (!templateSheetNames.isEmpty()) {
+                Workbook workbook = ((PoiTransformer) transformer).getWorkbook();
+                templateSheetNames.forEach(sheetName -> workbook.removeSheetAt(workbook.getSheetIndex(sheetName)));
+            }
 
             transformer.write();
         } catch (Exception e) {
             throw E.unexpected(e);
+        } finally {
+            if (streaming) {
+                ((PoiTransformer) transformer).dispose(); // 删除SXSSF临时文件
+            }
         }
 
     }
@@ -0,0 +1,187 @@
+package cn.jianchengwang.tl.poi.excel.writer;
+
+import cn.jianchengwang.tl.common.E;
+import cn.jianchengwang.tl.common.FileTool;
+import cn.jianchengwang.tl.poi.excel.enums.ExcelType;
+import org.jxls.common.CellData;
+import org.jxls.common.CellRef;
+import org.jxls.transform.Transformer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * jxls模板
+ * 模板内容只读取一次，保存在内存中，每次渲染从内存创建新的transformer，不再读文件/输入流；
+ * 注册过的模板按id或内容的SHA-256取出，同一个模板反复渲染时共用一份；
+ * 按id注册的模板一直保留到调用方 {@link #remove(String)}，按内容注册的模板只保留最近使用的 {@value #CONTENT_CACHE_SIZE} 个
+ * 第一次渲染时记下模板中带批注(jx命令)的单元格位置和批注内容，之后的渲染直接按记下的命令定义构建区域，不再逐个单元格查找批注；
+ * 注：jxls的Area和命令绑定transformer并且在applyAt时会修改状态，不能跨渲染共用，每次渲染仍然从内存创建workbook、按命令定义新建Area
+ */
+public class JxlsTemplate {
+
+    private static final int CONTENT_CACHE_SIZE = 64;
+
+    private static final Map<String, JxlsTemplate> REGISTRY = new ConcurrentHashMap<>(); // 按id注册的模板
+    private static final Map<String, JxlsTemplate> CONTENT_CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<String, JxlsTemplate>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, JxlsTemplate> eldest) {
+                    return size() > CONTENT_CACHE_SIZE;
+                }
+            }); // 按内容注册的模板，key为SHA-256，超出个数时淘汰最久没有使用的
+
+    private final String sha256; // 模板内容的SHA-256
+    private final byte[] bytes; // 模板内容
+    private final ExcelType excelType; // 模板类型
+    private volatile List<CommentedCell> commentedCells; // 带批注的单元格，第一次渲染时读取
+
+    private JxlsTemplate(byte[] bytes) {
+        this.bytes = bytes;
+        this.sha256 = sha256(bytes);
+        this.excelType = ExcelType.valueOf(this.openStream());
+    }
+
+    /**
+     * 读取模板内容，不注册，会关闭输入流
+     */
+    public static JxlsTemplate of(InputStream in) {
+        try {
+            return new JxlsTemplate(FileTool.toByteArray(in));
+        } catch (IOException e) {
+            throw E.unexpected(e);
+        }
+    }
+
+    public static JxlsTemplate of(File templateFile) {
+        try {
+            return of(new FileInputStream(templateFile));
+        } catch (IOException e) {
+            throw E.unexpected(e);
+        }
+    }
+
+    /**
+     * 按内容的SHA-256注册，内容相同的模板只保存一份；只保留最近使用的 {@value #CONTENT_CACHE_SIZE} 个，被淘汰后get返回null，需要重新注册
+     *
+     * @return 已注册的模板，key为 {@link #sha256()}
+     */
+    public static JxlsTemplate register(InputStream in) {
+        JxlsTemplate template = of(in);
+        return CONTENT_CACHE.computeIfAbsent(template.sha256, key -> template);
+    }
+
+    /**
+     * 按id注册，同一个id再次注册时替换原来的模板；不会被淘汰，不再使用时需要调用 {@link #remove(String)}
+     */
+    public static JxlsTemplate register(String id, InputStream in) {
+        JxlsTemplate template = of(in);
+        REGISTRY.put(id, template);
+        return template;
+    }
+
+    public static JxlsTemplate register(String id, File templateFile) {
+        JxlsTemplate template = of(templateFile);
+        REGISTRY.put(id, template);
+        return template;
+    }
+
+    /**
+     * @param key 注册时的id或内容的SHA-256
+     * @return 没有注册时返回null
+     */
+    public static JxlsTemplate get(String key) {
+        JxlsTemplate template = REGISTRY.get(key);
+        return null != template ? template : CONTENT_CACHE.get(key);
+    }
+
+    /**
+     * @param key 注册时的id或内容的SHA-256
+     * @return 被移除的模板，没有注册时返回null
+     */
+    public static JxlsTemplate remove(String key) {
+        JxlsTemplate template = REGISTRY.remove(key);
+        return null != template ? template : CONTENT_CACHE.remove(key);
+    }
+
+    /**
+     * 每次调用返回新的输入流，不需要关闭
+     */
+    public InputStream openStream() {
+        return new ByteArrayInputStream(bytes);
+    }
+
+    public String sha256() {
+        return sha256;
+    }
+
+    public ExcelType excelType() {
+        return excelType;
+    }
+
+    public int size() {
+        return bytes.length;
+    }
+
+    /**
+     * 模板中带批注的单元格，第一次调用时从transformer读取并记下；每次返回新的CellData，jxls构建区域时会修改单元格引用
+     */
+    List<CellData> commentedCells(Transformer transformer) {
+        List<CommentedCell> cells = this.commentedCells;
+        if (null == cells) {
+            List<CellData> read = transformer.getCommentedCells();
+            cells = new ArrayList<>(read.size());
+            for (CellData cellData : read) {
+                CellRef cellRef = cellData.getCellRef();
+                cells.add(new CommentedCell(cellRef.getSheetName(), cellRef.getRow(), cellRef.getCol(), cellData.getCellComment()));
+            }
+            this.commentedCells = cells;
+        }
+
+        List<CellData> result = new ArrayList<>(cells.size());
+        for (CommentedCell cell : cells) {
+            CellData cellData = new CellData(new CellRef(cell.sheetName, cell.row, cell.col));
+            cellData.setCellComment(cell.comment);
+            result.add(cellData);
+        }
+        return result;
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw E.unexpected(e);
+        }
+    }
+
+    private static class CommentedCell {
+        private final String sheetName;
+        private final int row;
+        private final int col;
+        private final String comment; // jx命令
+
+        CommentedCell(String sheetName, int row, int col, String comment) {
+            this.sheetName = sheetName;
+            this.row = row;
+            this.col = col;
+            this.comment = comment;
+        }
+    }
+}
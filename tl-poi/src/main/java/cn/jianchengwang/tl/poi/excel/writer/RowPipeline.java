@@ -0,0 +1,139 @@
+package cn.jianchengwang.tl.poi.excel.writer;
+
+import cn.jianchengwang.tl.common.E;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * 把实体行转换成单元格值的流水线
+ * parallelism大于1时，数据源按批取出交给线程池转换(反射取值、转换器、格式化)，转换好的批次按提交顺序放在有界队列中，
+ * 写sheet的线程按顺序取出写入，队列满时先写再取，内存中最多只有parallelism * 2批数据；
+ * 数据源和workbook都只在调用线程中访问
+ */
+class RowPipeline implements Iterator<Object[]>, AutoCloseable {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final RowPlan rowPlan;
+    private final Iterator<?> rows;
+    private final boolean grouped; // 每行后面多放一个分组值
+    private final boolean groupByToString; // 分组值使用字段的toString
+    private Object firstRow; // 确定实体类型时已经取出的第一行
+
+    private final ForkJoinPool pool;
+    private final int maxPending;
+    private final ArrayDeque<Future<Object[][]>> pending = new ArrayDeque<>();
+
+    private Object[][] batch;
+    private int batchIndex;
+
+    RowPipeline(RowPlan rowPlan, Object firstRow, Iterator<?> rows, int parallelism) {
+        this(rowPlan, firstRow, rows, parallelism, false, false);
+    }
+
+    /**
+     * @param grouped         true时每行转换成RowPlan.toGroupedCells，最后一个元素为分组值
+     * @param groupByToString 分组值使用字段的toString，见RowPlan.groupKey
+     */
+    RowPipeline(RowPlan rowPlan, Object firstRow, Iterator<?> rows, int parallelism, boolean grouped, boolean groupByToString) {
+        this.rowPlan = rowPlan;
+        this.grouped = grouped;
+        this.groupByToString = groupByToString;
+        this.firstRow = firstRow;
+        this.rows = rows;
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        this.maxPending = parallelism * 2;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (null == pool) {
+            return null != firstRow || rows.hasNext();
+        }
+        while (null == batch || batchIndex == batch.length) {
+            this.submit();
+            if (pending.isEmpty()) {
+                return false;
+            }
+            batch = take(pending.poll());
+            batchIndex = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public Object[] next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (null == pool) {
+            return this.toCells(this.nextRow());
+        }
+        Object[] cells = batch[batchIndex];
+        batch[batchIndex++] = null;
+        return cells;
+    }
+
+    /**
+     * 队列没满时继续从数据源取批次提交转换
+     */
+    private void submit() {
+        while (pending.size() < maxPending && (null != firstRow || rows.hasNext())) {
+            List<Object> items = new ArrayList<>(BATCH_SIZE);
+            while (items.size() < BATCH_SIZE && (null != firstRow || rows.hasNext())) {
+                items.add(this.nextRow());
+            }
+            pending.add(pool.submit(() -> convert(items)));
+        }
+    }
+
+    private Object nextRow() {
+        if (null != firstRow) {
+            Object row = firstRow;
+            firstRow = null;
+            return row;
+        }
+        return rows.next();
+    }
+
+    private Object[][] convert(List<Object> items) {
+        Object[][] cells = new Object[items.size()][];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = this.toCells(items.get(i));
+        }
+        return cells;
+    }
+
+    private Object[] toCells(Object row) {
+        return grouped ? rowPlan.toGroupedCells(row, groupByToString) : rowPlan.toCells(row);
+    }
+
+    private static Object[][] take(Future<Object[][]> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw E.unexpected(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw E.unexpected(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (null != pool) {
+            for (Future<Object[][]> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package cn.jianchengwang.tl.poi.excel.writer;
+
+import cn.jianchengwang.tl.common.E;
+import cn.jianchengwang.tl.common.S;
+import cn.jianchengwang.tl.poi.excel.annotation.ExcelColumn;
+import cn.jianchengwang.tl.poi.excel.config.ExcelModel;
+import cn.jianchengwang.tl.poi.excel.converter.*;
+import cn.jianchengwang.tl.poi.excel.kit.ExcelKit;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * 实体类的写出计划
+ * 在ExcelModel的基础上计算每一列写出用的转换器、单元格类型和格式，只在第一次使用时计算，
+ * 之后按类缓存，所有writer共用，写单元格时不再有Field.get/getAnnotation/newInstance
+ */
+public class RowPlan {
+
+    private static final ClassValue<RowPlan> PLANS = new ClassValue<RowPlan>() {
+        @Override
+        protected RowPlan computeValue(Class<?> type) {
+            return new RowPlan(ExcelModel.of(type));
+        }
+    };
+
+    private static final String DEFAULT_DATE_FORMAT      = "yyyy-mm-dd";
+    private static final String DEFAULT_DATE_TIME_FORMAT = "yyyy-mm-dd hh:mm:ss";
+
+    // double能精确表示的最大整数位数是15位，超过的数字按文本写出，避免excel显示时丢精度
+    private static final long       MAX_EXACT_LONG    = 999_999_999_999_999L;
+    private static final BigInteger MAX_EXACT_INTEGER = BigInteger.valueOf(MAX_EXACT_LONG);
+    private static final int        MAX_EXACT_DIGITS  = 15;
+
+    /**
+     * 单元格的原生类型
+     */
+    public enum CellKind {
+        TEXT, NUMBER, BOOLEAN, DATE
+    }
+
+    // 指定了dateFormat但不是日期类型的字段，写出空字符串
+    private static final Converter<String, Object> EMPTY_CONVERTER = new Converter<String, Object>() {
+        @Override
+        public Object stringToR(String value, Class clazz) {
+            return null;
+        }
+
+        @Override
+        public String toString(Object fieldValue) {
+            return "";
+        }
+    };
+
+    private final List<ExcelColumn> annotations; // 按字段声明顺序，表头使用
+    private final List<Column> columns; // 按列索引排序，写行使用
+    private final Column groupByColumn; // groupBy=true的列，没有时为null
+    private volatile HeaderLayout singleHeader; // 单行表头布局，第一次使用时计算
+    private volatile HeaderLayout multiHeader; // 多行表头布局，第一次使用时计算
+
+    public static RowPlan of(Class<?> clazz) {
+        return PLANS.get(clazz);
+    }
+
+    private RowPlan(ExcelModel<?> model) {
+        List<ExcelColumn> annotationList = new ArrayList<>();
+        List<Column> columnList = new ArrayList<>();
+        for (ExcelModel.Column c : model.columns()) {
+            Class<?> type = c.field().getType();
+            annotationList.add(c.annotation());
+            columnList.add(new Column(c, compileConverter(c),
+                    cellKind(c.annotation(), type), cellFormat(c.annotation(), type)));
+        }
+        columnList.sort(Comparator.comparingInt(Column::index));
+
+        Column groupBy = null;
+        for (Column column : columnList) {
+            if (null != model.groupByColumn() && column.field().equals(model.groupByColumn().field())) {
+                groupBy = column;
+            }
+        }
+
+        this.annotations = Collections.unmodifiableList(annotationList);
+        this.columns = Collections.unmodifiableList(columnList);
+        this.groupByColumn = groupBy;
+    }
+
+    /**
+     * 和原来逐个单元格计算的规则一致：String直接输出；自定义转换器优先；其次是dateFormat；最后按字段类型取默认转换器，
+     * 没有dateFormat的日期直接toString
+     *
+     * @return null表示直接toString
+     */
+    @SuppressWarnings("unchecked")
+    private static Converter<String, Object> compileConverter(ExcelModel.Column column) {
+        ExcelColumn annotation = column.annotation();
+        Class<?> type = column.field().getType();
+        if (type.equals(String.class)) {
+            return null;
+        }
+        boolean dateType = Date.class.equals(type) || LocalDate.class.equals(type) || LocalDateTime.class.equals(type);
+        if (NullConverter.class.equals(annotation.converter()) && S.isNotEmpty(annotation.dateFormat()) && !dateType) {
+            return EMPTY_CONVERTER;
+        }
+        // 日期没有dateFormat时默认转换器的格式为空，会输出空字符串，按toString输出
+        if (NullConverter.class.equals(annotation.converter()) && S.isEmpty(annotation.dateFormat()) && dateType) {
+            return null;
+        }
+        return column.converter();
+    }
+
+    /**
+     * 自定义转换器的输出由转换器决定，仍然按文本写出；dateFormat无法转换成excel格式的日期也按文本写出
+     */
+    private static CellKind cellKind(ExcelColumn column, Class<?> type) {
+        if (!NullConverter.class.equals(column.converter())) {
+            return CellKind.TEXT;
+        }
+        if (Number.class.isAssignableFrom(type) || (type.isPrimitive() && type != boolean.class && type != char.class)) {
+            return CellKind.NUMBER;
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return CellKind.BOOLEAN;
+        }
+        if (Date.class.equals(type) || LocalDate.class.equals(type) || LocalDateTime.class.equals(type)) {
+            if (S.isNotEmpty(column.dateFormat()) && null == ExcelKit.toExcelDateFormat(column.dateFormat())) {
+                return CellKind.TEXT;
+            }
+            return CellKind.DATE;
+        }
+        return CellKind.TEXT;
+    }
+
+    /**
+     * 日期字段的dateFormat转换成excel格式，数字字段的dateFormat直接作为数字格式(如#,##0.00)
+     *
+     * @return null表示使用列的基础样式
+     */
+    private static String cellFormat(ExcelColumn column, Class<?> type) {
+        CellKind kind = cellKind(column, type);
+        if (kind == CellKind.DATE) {
+            if (S.isNotEmpty(column.dateFormat())) {
+                return ExcelKit.toExcelDateFormat(column.dateFormat());
+            }
+            return LocalDate.class.equals(type) ? DEFAULT_DATE_FORMAT : DEFAULT_DATE_TIME_FORMAT;
+        }
+        if (kind == CellKind.NUMBER && S.isNotEmpty(column.dateFormat())) {
+            return column.dateFormat();
+        }
+        return null;
+    }
+
+    public List<ExcelColumn> annotations() {
+        return this.annotations;
+    }
+
+    public List<Column> columns() {
+        return this.columns;
+    }
+
+    /**
+     * 表头布局，所有sheet共用；并发时可能重复计算，结果相同
+     *
+     * @param multiLine 是否多行表头(headLineRow != 1)
+     */
+    public HeaderLayout headerLayout(boolean multiLine) {
+        if (multiLine) {
+            if (null == multiHeader) {
+                multiHeader = HeaderLayout.multi(annotations);
+            }
+            return multiHeader;
+        }
+        if (null == singleHeader) {
+            singleHeader = HeaderLayout.single(annotations);
+        }
+        return singleHeader;
+    }
+
+    /**
+     * 把一行转换成可以直接写进单元格的值，和columns()一一对应：Double、Boolean、Date或者String，null表示不创建单元格
+     * 不访问workbook，可以在多个线程中并行执行
+     */
+    public Object[] toCells(Object instance) {
+        return toCells(instance, new Object[columns.size()]);
+    }
+
+    /**
+     * 分组写出时使用：toCells的结果后面多放一个分组值，长度为columns().size() + 1
+     */
+    public Object[] toGroupedCells(Object instance) {
+        return toGroupedCells(instance, false);
+    }
+
+    /**
+     * @param byToString 分组值的取法，见 {@link #groupKey(Object, boolean)}
+     */
+    public Object[] toGroupedCells(Object instance, boolean byToString) {
+        Object[] cells = toCells(instance, new Object[columns.size() + 1]);
+        cells[columns.size()] = groupKey(instance, byToString);
+        return cells;
+    }
+
+    /**
+     * groupBy字段的文本，和单元格写出的文本一致，null为空字符串
+     */
+    public String groupKey(Object instance) {
+        return groupKey(instance, false);
+    }
+
+    /**
+     * @param byToString true时为字段的toString，enableAutoGroupBy一直以来的取法，字段为null时报错；
+     *                   false时和单元格写出的文本一致，null为空字符串
+     */
+    public String groupKey(Object instance, boolean byToString) {
+        if (null == groupByColumn) {
+            throw E.invalidConfiguration("{0} has no groupBy column", instance.getClass().getName());
+        }
+        Object value = groupByColumn.get(instance);
+        if (byToString) {
+            if (null == value) {
+                throw E.invalidConfiguration("groupBy field [{0}] of {1} is null", groupByColumn.field().getName(), instance.getClass().getName());
+            }
+            return value.toString();
+        }
+        return null == value ? "" : groupByColumn.toContent(value);
+    }
+
+    private Object[] toCells(Object instance, Object[] cells) {
+        for (int i = 0, size = columns.size(); i < size; i++) {
+            Column column = columns.get(i);
+            Object value = column.get(instance);
+            if (value != null) {
+                cells[i] = column.toCell(value);
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * 一个@ExcelColumn字段：列索引、getter、转换器
+     */
+    public static class Column {
+        private final ExcelModel.Column column;
+        private final int index;
+        private final Converter<String, Object> converter;
+        private final CellKind kind;
+        private final String format;
+
+        Column(ExcelModel.Column column, Converter<String, Object> converter, CellKind kind, String format) {
+            this.column = column;
+            this.index = column.index();
+            this.converter = converter;
+            this.kind = kind;
+            this.format = format;
+        }
+
+        public ExcelColumn annotation() {
+            return column.annotation();
+        }
+
+        public int index() {
+            return index;
+        }
+
+        public Field field() {
+            return column.field();
+        }
+
+        public CellKind kind() {
+            return kind;
+        }
+
+        /**
+         * @return excel单元格格式，null表示使用列的基础样式
+         */
+        public String format() {
+            return format;
+        }
+
+        /**
+         * 数字、布尔、日期按excel原生类型，其他的按文本
+         *
+         * @param value 非空的字段值
+         */
+        public Object toCell(Object value) {
+            switch (kind) {
+                case NUMBER:
+                    if (isExactNumber(value)) {
+                        return toDouble((Number) value);
+                    }
+                    break;
+                case BOOLEAN:
+                    return value;
+                case DATE:
+                    return toDate(value);
+                default:
+                    break;
+            }
+            return toContent(value);
+        }
+
+        /**
+         * 数字是否能用double精确表示，不能的按文本写出
+         */
+        private boolean isExactNumber(Object value) {
+            if (value instanceof Long) {
+                long number = (Long) value;
+                return number >= -MAX_EXACT_LONG && number <= MAX_EXACT_LONG;
+            }
+            if (value instanceof BigInteger) {
+                return ((BigInteger) value).abs().compareTo(MAX_EXACT_INTEGER) <= 0;
+            }
+            if (value instanceof BigDecimal) {
+                return ((BigDecimal) value).precision() <= MAX_EXACT_DIGITS;
+            }
+            return true;
+        }
+
+        /**
+         * float直接转double会带出二进制误差(0.1f -> 0.10000000149011612)，按十进制文本转换
+         */
+        private static double toDouble(Number value) {
+            if (value instanceof Float) {
+                return Double.parseDouble(value.toString());
+            }
+            return value.doubleValue();
+        }
+
+        /**
+         * LocalDate/LocalDateTime按系统时区转成Date，和读取时的转换保持一致
+         */
+        private Date toDate(Object value) {
+            if (value instanceof LocalDateTime) {
+                return Date.from(((LocalDateTime) value).atZone(ZoneId.systemDefault()).toInstant());
+            }
+            if (value instanceof LocalDate) {
+                return Date.from(((LocalDate) value).atStartOfDay(ZoneId.systemDefault()).toInstant());
+            }
+            return (Date) value;
+        }
+
+        public Object get(Object instance) {
+            return column.get(instance);
+        }
+
+        /**
+         * @param value 非空的字段值
+         * @return 单元格文本
+         */
+        public String toContent(Object value) {
+            if (null == converter) {
+                return value.toString();
+            }
+            return converter.toString(value);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package cn.jianchengwang.tl.poi.excel.writer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.jxls.common.CellRef;
+import org.jxls.transform.poi.PoiTransformer;
+
+/**
+ * 流式渲染模板的transformer，模板为XSSF，输出为SXSSF
+ * 公式处理在区域写完之后进行，公式单元格所在的行已经刷到磁盘时不能再修改，保留模板中的公式
+ * (SUM(C:C)这类整列引用不需要调整)
+ */
+@Slf4j
+class StreamingTransformer extends PoiTransformer {
+
+    StreamingTransformer(Workbook template, int rowWindow, boolean compressTempFiles) {
+        super(template, true, rowWindow, compressTempFiles, false);
+    }
+
+    @Override
+    public void setFormula(CellRef cellRef, String formulaString) {
+        if (null != cellRef && null != cellRef.getSheetName()) {
+            Sheet sheet = this.getWorkbook().getSheet(cellRef.getSheetName());
+            if (sheet instanceof SXSSFSheet && cellRef.getRow() <= ((SXSSFSheet) sheet).getLastFlushedRowNum()) {
+                log.debug("row of formula cell {} already flushed, keep template formula", cellRef);
+                return;
+            }
+        }
+        super.setFormula(cellRef, formulaString);
+    }
+}
@@ -0,0 +1,174 @@
+package cn.jianchengwang.tl.poi.excel.writer;
+
+import cn.jianchengwang.tl.poi.excel.Const;
+import cn.jianchengwang.tl.poi.excel.config.style.StyleConsumer;
+import org.apache.poi.hssf.util.HSSFColor;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.usermodel.XSSFColor;
+import org.apache.poi.xssf.usermodel.XSSFFont;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * workbook级别的样式、字体注册表
+ * 样式和字体按属性去重，属性相同的只保留一个；默认样式每个workbook只创建一次，
+ * StyleConfig的每个StyleConsumer每个workbook只调用一次，不会随sheet(分组、续写)数量增加，
+ * 避免xls超过4000个样式的限制
+ */
+class StyleRegistry {
+
+    private final Workbook workbook;
+
+    private final Map<String, CellStyle> styles = new HashMap<>(); // key为样式属性
+    private final Map<String, Font> fonts = new HashMap<>(); // key为字体属性
+    private final Map<StyleConsumer<Workbook, CellStyle>, Map<Short, CellStyle>> consumerStyles = new IdentityHashMap<>(); // StyleConsumer的结果，按基础样式索引区分
+    private final Map<String, CellStyle> formatStyles = new HashMap<>(); // 带数字/日期格式的样式，key为基础样式索引和格式
+    private DataFormat dataFormat;
+    private CellStyle spare; // 创建后没有用上的样式，poi不能删除样式，留给下一次创建样式时复用
+
+    private CellStyle headerStyle;
+    private CellStyle columnStyle;
+    private Font commentFont;
+
+    StyleRegistry(Workbook workbook) {
+        this.workbook = workbook;
+    }
+
+    CellStyle defaultHeaderStyle() {
+        if (null == headerStyle) {
+            headerStyle = this.intern(Const.DEFAULT_STYLE.defaultHeaderStyle(workbook));
+        }
+        return headerStyle;
+    }
+
+    CellStyle defaultColumnStyle() {
+        if (null == columnStyle) {
+            columnStyle = this.intern(Const.DEFAULT_STYLE.defaultColumnStyle(workbook));
+        }
+        return columnStyle;
+    }
+
+    /**
+     * 批注使用的字体，所有批注共用
+     */
+    Font commentFont() {
+        if (null == commentFont) {
+            commentFont = this.intern(workbook.createFont());
+        }
+        return commentFont;
+    }
+
+    /**
+     * StyleConsumer在基础样式的副本上修改，同一个consumer和基础样式只调用一次，结果按属性去重；
+     * 同一个consumer用在不同的基础样式上(如表头和数据列共用)时分别计算
+     */
+    CellStyle resolve(StyleConsumer<Workbook, CellStyle> consumer, CellStyle baseStyle) {
+        Map<Short, CellStyle> results = consumerStyles.computeIfAbsent(consumer, key -> new HashMap<>());
+        CellStyle style = results.get(baseStyle.getIndex());
+        if (null == style) {
+            CellStyle copy = this.newStyle(baseStyle);
+            CellStyle result = consumer.accept(workbook, copy);
+            style = null == result ? baseStyle : this.intern(result);
+            if (style != copy) {
+                this.release(copy);
+            }
+            results.put(baseStyle.getIndex(), style);
+        }
+        return style;
+    }
+
+    /**
+     * 同一个基础样式和格式只创建一个样式
+     */
+    CellStyle formatStyle(CellStyle baseStyle, String format) {
+        if (null == format) {
+            return baseStyle;
+        }
+        String key = (null == baseStyle ? -1 : baseStyle.getIndex()) + "|" + format;
+        CellStyle style = formatStyles.get(key);
+        if (null == style) {
+            if (null == dataFormat) {
+                dataFormat = workbook.createDataFormat();
+            }
+            CellStyle copy = this.newStyle(baseStyle);
+            copy.setDataFormat(dataFormat.getFormat(format));
+            style = this.intern(copy);
+            if (style != copy) {
+                this.release(copy);
+            }
+            formatStyles.put(key, style);
+        }
+        return style;
+    }
+
+    /**
+     * 已经有属性相同的样式时返回已有的，否则登记这个样式；样式的字体也一起去重
+     */
+    CellStyle intern(CellStyle style) {
+        Font font = workbook.getFontAt(style.getFontIndexAsInt());
+        Font interned = this.intern(font);
+        if (interned != font) {
+            style.setFont(interned);
+        }
+        return styles.computeIfAbsent(styleKey(style, fontKey(interned)), key -> style);
+    }
+
+    Font intern(Font font) {
+        return fonts.computeIfAbsent(fontKey(font), key -> font);
+    }
+
+    /**
+     * 从基础样式(为空时为workbook的默认样式)复制一个新样式，优先复用没有用上的样式
+     */
+    private CellStyle newStyle(CellStyle baseStyle) {
+        CellStyle style = spare;
+        spare = null;
+        if (null == style) {
+            style = workbook.createCellStyle();
+        }
+        style.cloneStyleFrom(null == baseStyle ? workbook.getCellStyleAt(0) : baseStyle);
+        return style;
+    }
+
+    private void release(CellStyle style) {
+        if (null == spare) {
+            spare = style;
+        }
+    }
+
+    private static String styleKey(CellStyle style, String fontKey) {
+        return style.getAlignment() + "," + style.getVerticalAlignment()
+                + "," + style.getBorderTop() + "," + style.getBorderRight()
+                + "," + style.getBorderBottom() + "," + style.getBorderLeft()
+                + "," + style.getTopBorderColor() + "," + style.getRightBorderColor()
+                + "," + style.getBottomBorderColor() + "," + style.getLeftBorderColor()
+                + "," + style.getFillPattern()
+                + "," + style.getFillForegroundColor() + "," + color(style.getFillForegroundColorColor())
+                + "," + style.getFillBackgroundColor() + "," + color(style.getFillBackgroundColorColor())
+                + "," + style.getWrapText() + "," + style.getDataFormat()
+                + "," + style.getHidden() + "," + style.getLocked()
+                + "," + style.getIndention() + "," + style.getRotation()
+                + "," + style.getShrinkToFit() + "," + style.getQuotePrefixed()
+                + "|" + fontKey;
+    }
+
+    private static String fontKey(Font font) {
+        String rgb = font instanceof XSSFFont ? color(((XSSFFont) font).getXSSFColor()) : null;
+        return font.getFontName() + "," + font.getFontHeight() + "," + font.getBold()
+                + "," + font.getItalic() + "," + font.getStrikeout() + "," + font.getUnderline()
+                + "," + font.getTypeOffset() + "," + font.getCharSet()
+                + "," + font.getColor() + "," + rgb;
+    }
+
+    private static String color(Color color) {
+        if (color instanceof XSSFColor) {
+            return ((XSSFColor) color).getARGBHex();
+        }
+        if (color instanceof HSSFColor) {
+            return ((HSSFColor) color).getHexString();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,178 @@
+package cn.jianchengwang.tl.poi.excel.writer;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.util.TempFile;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.streaming.SheetDataWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 临时文件可控的SXSSFWorkbook
+ * 刷出的行写到指定目录(默认java.io.tmpdir)的临时文件中，可选gzip压缩，并统计实际写进临时文件的字节数；
+ * 临时文件在写入时才打开，{@link #park(Sheet)}之后关闭文件句柄，再有行刷出时按追加方式重新打开，
+ * sheet很多(如按分组写出)时打开的文件句柄数不随sheet数增长；
+ * 用完必须dispose，否则临时文件会一直留在磁盘上
+ */
+class TempFileWorkbook extends SXSSFWorkbook {
+
+    private static final String TEMP_FILE_PREFIX = "tl-poi-sxssf-sheet";
+
+    private final File tempDir;
+    private final boolean compress;
+    private long tempBytes;
+    private final Map<Sheet, TempSheetDataWriter> writers = new IdentityHashMap<>();
+    private TempSheetDataWriter createdWriter; // createSheet过程中新建的writer
+
+    TempFileWorkbook(int bufferSize, File tempDir, boolean compress) {
+        super(bufferSize);
+        this.tempDir = tempDir;
+        this.compress = compress;
+        this.setCompressTempFiles(compress);
+    }
+
+    @Override
+    protected SheetDataWriter createSheetDataWriter() throws IOException {
+        createdWriter = new TempSheetDataWriter();
+        return createdWriter;
+    }
+
+    @Override
+    public SXSSFSheet createSheet(String sheetname) {
+        SXSSFSheet sheet = super.createSheet(sheetname);
+        if (null != createdWriter) {
+            writers.put(sheet, createdWriter);
+            createdWriter = null;
+        }
+        return sheet;
+    }
+
+    /**
+     * 把sheet已经刷出的行写进临时文件并关闭文件句柄，之后仍然可以继续写这个sheet
+     */
+    void park(Sheet sheet) throws IOException {
+        TempSheetDataWriter writer = writers.get(sheet);
+        if (null != writer) {
+            writer.park();
+        }
+    }
+
+    /**
+     * 所有sheet写进临时文件的字节数，压缩时是压缩后的大小
+     */
+    long tempBytes() {
+        return tempBytes;
+    }
+
+    private class TempSheetDataWriter extends SheetDataWriter {
+
+        // createWriter在父类构造方法中调用，这两个字段不能有初始值
+        private Writer writer;
+        private ReopenableFileOutputStream file;
+
+        TempSheetDataWriter() throws IOException {
+            super();
+        }
+
+        @Override
+        public Writer createWriter(File fd) throws IOException {
+            this.file = new ReopenableFileOutputStream(fd);
+            this.writer = new BufferedWriter(new OutputStreamWriter(decorate(file), StandardCharsets.UTF_8));
+            return writer;
+        }
+
+        void park() throws IOException {
+            writer.flush();
+            file.park();
+        }
+
+        @Override
+        public File createTempFile() throws IOException {
+            String suffix = compress ? ".gz" : ".xml";
+            if (null == tempDir) {
+                return TempFile.createTempFile(TEMP_FILE_PREFIX, suffix);
+            }
+            if (!tempDir.isDirectory() && !tempDir.mkdirs() && !tempDir.isDirectory()) {
+                throw new IOException("Could not create temporary directory '" + tempDir + "'");
+            }
+            return File.createTempFile(TEMP_FILE_PREFIX, suffix, tempDir);
+        }
+
+        @Override
+        protected OutputStream decorateOutputStream(FileOutputStream fos) throws IOException {
+            return decorate(fos);
+        }
+
+        private OutputStream decorate(OutputStream fos) throws IOException {
+            OutputStream counting = new FilterOutputStream(fos) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    tempBytes++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    tempBytes += len;
+                }
+            };
+            return compress ? new GZIPOutputStream(counting, 64 * 1024) : counting;
+        }
+
+        @Override
+        protected InputStream decorateInputStream(FileInputStream fis) throws IOException {
+            return compress ? new GZIPInputStream(fis, 64 * 1024) : fis;
+        }
+    }
+
+    /**
+     * 写入时才打开的文件输出流，park后关闭文件句柄，下次写入时追加打开
+     */
+    private static class ReopenableFileOutputStream extends OutputStream {
+
+        private final File file;
+        private FileOutputStream out;
+        private boolean append;
+
+        ReopenableFileOutputStream(File file) {
+            this.file = file;
+        }
+
+        private OutputStream out() throws IOException {
+            if (null == out) {
+                out = new FileOutputStream(file, append);
+                append = true;
+            }
+            return out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out().write(b, off, len);
+        }
+
+        void park() throws IOException {
+            if (null != out) {
+                out.close();
+                out = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.park();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package cn.jianchengwang.tl.poi.excel.writer;
+
+import org.jxls.common.*;
+import org.jxls.transform.TransformationConfig;
+import org.jxls.transform.Transformer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 构建区域时使用的transformer，带批注的单元格从 {@link JxlsTemplate} 记下的命令定义中取，其余调用都交给实际渲染的transformer
+ */
+class TemplateTransformer implements Transformer {
+
+    private final Transformer transformer; // 实际渲染的transformer
+    private final JxlsTemplate template;
+
+    TemplateTransformer(Transformer transformer, JxlsTemplate template) {
+        this.transformer = transformer;
+        this.template = template;
+    }
+
+    @Override
+    public List<CellData> getCommentedCells() {
+        return template.commentedCells(transformer);
+    }
+
+    @Override
+    public void setTransformationConfig(TransformationConfig transformationConfig) {
+        transformer.setTransformationConfig(transformationConfig);
+    }
+
+    @Override
+    public TransformationConfig getTransformationConfig() {
+        return transformer.getTransformationConfig();
+    }
+
+    @Override
+    public void transform(CellRef srcCellRef, CellRef targetCellRef, Context context, boolean updateRowHeight) {
+        transformer.transform(srcCellRef, targetCellRef, context, updateRowHeight);
+    }
+
+    @Override
+    public void write() throws IOException {
+        transformer.write();
+    }
+
+    @Override
+    public void dispose() {
+        transformer.dispose();
+    }
+
+    @Override
+    public void setFormula(CellRef cellRef, String formulaString) {
+        transformer.setFormula(cellRef, formulaString);
+    }
+
+    @Override
+    public Set<CellData> getFormulaCells() {
+        return transformer.getFormulaCells();
+    }
+
+    @Override
+    public CellData getCellData(CellRef cellRef) {
+        return transformer.getCellData(cellRef);
+    }
+
+    @Override
+    public List<CellRef> getTargetCellRef(CellRef cellRef) {
+        return transformer.getTargetCellRef(cellRef);
+    }
+
+    @Override
+    public void resetTargetCellRefs() {
+        transformer.resetTargetCellRefs();
+    }
+
+    @Override
+    public void resetArea(AreaRef areaRef) {
+        transformer.resetArea(areaRef);
+    }
+
+    @Override
+    public void clearCell(CellRef cellRef) {
+        transformer.clearCell(cellRef);
+    }
+
+    @Override
+    public void addImage(AreaRef areaRef, byte[] imageBytes, ImageType imageType) {
+        transformer.addImage(areaRef, imageBytes, imageType);
+    }
+
+    @Override
+    public boolean deleteSheet(String sheetName) {
+        return transformer.deleteSheet(sheetName);
+    }
+
+    @Override
+    public void setHidden(String sheetName, boolean hidden) {
+        transformer.setHidden(sheetName, hidden);
+    }
+
+    @Override
+    public void updateRowHeight(String srcSheetName, int srcRowNum, String targetSheetName, int targetRowNum) {
+        transformer.updateRowHeight(srcSheetName, srcRowNum, targetSheetName, targetRowNum);
+    }
+
+    @Override
+    public void adjustTableSize(CellRef ref, Size size) {
+        transformer.adjustTableSize(ref, size);
+    }
+
+    @Override
+    public void mergeCells(CellRef cellRef, int rows, int cols) {
+        transformer.mergeCells(cellRef, rows, cols);
+    }
+}
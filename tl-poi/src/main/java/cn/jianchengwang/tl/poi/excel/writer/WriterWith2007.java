@@ -1,16 +1,16 @@
-
 package cn.jianchengwang.tl.poi.excel.writer;
 
 import cn.jianchengwang.tl.poi.excel.Writer;
 import cn.jianchengwang.tl.poi.excel.exception.WriterException;
-import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import lombok.extern.slf4j.Slf4j;
 
 import java.io.OutputStream;
 
 /**
  * Excel Writer by 2007
- *
+ * 无论成功还是失败，写完都会dispose删除SXSSF的临时文件
  */
+@Slf4j
 public class WriterWith2007 extends ExcelWriter {
 
     public WriterWith2007(OutputStream outputStream) {
@@ -19,8 +19,17 @@ public class WriterWith2007 extends ExcelWriter {
 
     @Override
     public void writeSheet(Writer writer) throws WriterException {
-        this.workbook = new SXSSFWorkbook(writer.bufferSize());
-        super.writeSheet(writer);
+        TempFileWorkbook tempFileWorkbook = new TempFileWorkbook(writer.bufferSize(), writer.tempDir(), writer.compressTempFiles());
+        this.workbook = tempFileWorkbook;
+        try {
+            super.writeSheet(writer);
+        } finally {
+            writer.tempBytesWritten(tempFileWorkbook.tempBytes());
+            if (!tempFileWorkbook.dispose()) {
+                log.warn("delete sxssf temp files fail");
+            }
+            log.debug("sxssf temp files {} bytes", tempFileWorkbook.tempBytes());
+        }
     }
 
 }
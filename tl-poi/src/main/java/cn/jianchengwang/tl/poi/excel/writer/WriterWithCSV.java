@@ -1,102 +1,168 @@
 package cn.jianchengwang.tl.poi.excel.writer;
 
-import cn.jianchengwang.tl.common.E;
 import cn.jianchengwang.tl.poi.excel.Const;
 import cn.jianchengwang.tl.poi.excel.Writer;
-import cn.jianchengwang.tl.poi.excel.annotation.ExcelColumn;
 import cn.jianchengwang.tl.poi.excel.config.GridSheet;
+import cn.jianchengwang.tl.poi.excel.exception.WriterException;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.lang.reflect.Field;
-import java.util.*;
-
-import static java.util.stream.Collectors.toList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * Created by wjc on 2019/9/5
- **/
+ * csv写出
+ * 边遍历数据边写，字段值由RowPlan的getter和转换器直接写进字符缓冲，内存占用和行数无关；
+ * 按RFC 4180转义：包含逗号、引号或换行的字段用引号包裹，引号写成两个引号，行尾为\r\n
+ */
 public class WriterWithCSV {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final char SEPARATOR = ',';
+    private static final char QUOTE = '"';
+    private static final char BOM = '\ufeff';
+
     private OutputStream outputStream;
-    private List<String[]> csvLines;
+
+    private final char[] buf = new char[BUFFER_SIZE];
+    private int pos;
+    private java.io.Writer out;
 
     public WriterWithCSV(OutputStream outputStream) {
         this.outputStream = outputStream;
     }
 
-    public void writeSheet(Writer writer) {
+    public void writeSheet(Writer writer) throws WriterException {
+        try (OutputStreamWriter osWriter = new OutputStreamWriter(
+                writer.gzip() ? new GZIPOutputStream(outputStream, BUFFER_SIZE) : outputStream, Const.charset)) {
+            this.out = osWriter;
+            // BOM只在文件开头写一次，excel据此识别utf-8
+            write(BOM);
+            for (GridSheet sheet : writer.getGridSheetList()) {
+                try {
+                    writeGrid(sheet);
+                } catch (IOException | WriterException e) {
+                    throw e;
+                } catch (Exception e) {
+                    // 数据源(Stream、Iterator、PageFetcher)或者转换中途失败，和ExcelWriter一样统一抛出WriterException
+                    throw new WriterException("sheet [" + sheet.sheetName() + "] write row error", e);
+                }
+            }
+            flushBuffer();
+        } catch (IOException e) {
+            throw new WriterException("csv write to OutputStream error", e);
+        }
+    }
 
-        try (OutputStreamWriter osWriter =
-                     new OutputStreamWriter(outputStream, Const.charset)) {
+    @SuppressWarnings("unchecked")
+    private void writeGrid(GridSheet sheet) throws IOException, WriterException {
+        Iterator<Object> rows = sheet.rows();
+        Object firstRow = rows.hasNext() ? rows.next() : null;
+        Class<?> clazz = null != firstRow ? firstRow.getClass() : sheet.clazz();
+        if (null == clazz) {
+            throw new WriterException("sheet [" + sheet.sheetName() + "] has no data and no class");
+        }
+        List<RowPlan.Column> columns = RowPlan.of(clazz).columns();
 
-            for(GridSheet sheet: writer.getGridSheetList()) {
-                Collection<?> rows = sheet.getData();
-                this.parseCSVLines(rows);
+        // 表头，读取时默认跳过一行
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                write(SEPARATOR);
+            }
+            writeField(columns.get(i).annotation().header());
+        }
+        writeNewLine();
 
-                osWriter.write('\ufeff');
+        long totalRow = 0;
+        if (null != firstRow) {
+            writeRow(columns, firstRow);
+            totalRow++;
+        }
+        while (rows.hasNext()) {
+            writeRow(columns, rows.next());
+            totalRow++;
+        }
+        sheet.setTotalRow(totalRow);
+    }
 
-                for (String[] csvLine : csvLines) {
-                    writeLine(osWriter, csvLine);
-                }
+    private void writeRow(List<RowPlan.Column> columns, Object instance) throws IOException {
+        for (int i = 0, size = columns.size(); i < size; i++) {
+            if (i > 0) {
+                write(SEPARATOR);
+            }
+            RowPlan.Column column = columns.get(i);
+            Object value = column.get(instance);
+            if (null != value) {
+                writeField(column.toContent(value));
             }
-        } catch (Exception e) {
-            throw E.unexpected(e);
         }
+        writeNewLine();
     }
 
-    private void writeLine(OutputStreamWriter osWriter, String[] csvLine) throws IOException {
-        for (int i = 0; i < csvLine.length; i++) {
-            String col = csvLine[i];
-            col = null == col ? "" : col;
-            osWriter.write(col);
-            if (i < csvLine.length - 1) {
-                osWriter.write(",");
+    private void writeField(String value) throws IOException {
+        if (null == value || value.isEmpty()) {
+            return;
+        }
+        if (!needQuote(value)) {
+            write(value);
+            return;
+        }
+        write(QUOTE);
+        int start = 0;
+        for (int i = 0, len = value.length(); i < len; i++) {
+            if (value.charAt(i) == QUOTE) {
+                write(value, start, i + 1);
+                write(QUOTE);
+                start = i + 1;
             }
         }
-        osWriter.write("\n");
+        write(value, start, value.length());
+        write(QUOTE);
     }
 
-    private void parseCSVLines(Collection<?> rows) {
-        csvLines = new ArrayList<>(rows.size());
-
-        Class<?>            type         = rows.iterator().next().getClass();
-        Field[]             fields       = type.getDeclaredFields();
-        Map<Integer, Field> fieldIndexes = new HashMap<>(fields.length);
-
-        for (Field field : fields) {
-            ExcelColumn column = field.getAnnotation(ExcelColumn.class);
-            if (null != column) {
-                field.setAccessible(true);
-                fieldIndexes.put(column.index(), field);
+    private static boolean needQuote(String value) {
+        for (int i = 0, len = value.length(); i < len; i++) {
+            char c = value.charAt(i);
+            if (c == SEPARATOR || c == QUOTE || c == '\n' || c == '\r') {
+                return true;
             }
         }
+        return false;
+    }
 
-        List<Field> sortedFields = fieldIndexes.keySet().stream()
-                .sorted().map(fieldIndexes::get)
-                .collect(toList());
+    private void writeNewLine() throws IOException {
+        write('\r');
+        write('\n');
+    }
 
-        for (Object item : rows) {
-            try {
-                String[] row = parseRow(sortedFields, item);
-                csvLines.add(row);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+    private void write(char c) throws IOException {
+        if (pos == buf.length) {
+            flushBuffer();
         }
+        buf[pos++] = c;
     }
 
-    private String[] parseRow(List<Field> sortedFields, Object item) throws Exception {
-        String[] row  = new String[sortedFields.size()];
-        int      size = sortedFields.size();
-        for (int i = 0; i < size; i++) {
-            Object value = sortedFields.get(i).get(item);
-            if (null == value) {
-                row[i] = "";
-            } else {
-                row[i] = value.toString();
+    private void write(String value) throws IOException {
+        write(value, 0, value.length());
+    }
+
+    private void write(String value, int start, int end) throws IOException {
+        while (start < end) {
+            if (pos == buf.length) {
+                flushBuffer();
             }
+            int len = Math.min(end - start, buf.length - pos);
+            value.getChars(start, start + len, buf, pos);
+            pos += len;
+            start += len;
         }
-        return row;
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
     }
 }
@@ -0,0 +1,542 @@
+package cn.jianchengwang.tl.poi.excel.writer;
+
+import cn.jianchengwang.tl.common.E;
+import cn.jianchengwang.tl.poi.excel.Const;
+import cn.jianchengwang.tl.poi.excel.Writer;
+import cn.jianchengwang.tl.poi.excel.annotation.ExcelColumn;
+import cn.jianchengwang.tl.poi.excel.config.GridSheet;
+import cn.jianchengwang.tl.poi.excel.config.option.Options;
+import cn.jianchengwang.tl.poi.excel.exception.WriterException;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.ss.util.WorkbookUtil;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * xlsx直接写SpreadsheetML
+ * 不创建POI的workbook/row/cell对象，也不写临时文件：每个sheet的xml边转换边写进zip，styles、workbook等小文件最后写，
+ * 字符串使用内联字符串，不需要共享字符串表
+ * 支持单行表头、列宽、下拉选项、数字/布尔/日期单元格和格式、sheet续写、并行转换；
+ * 附加信息、多行表头、自定义样式和sheetConsumer依赖POI对象，这些配置由Writer回退到WriterWith2007；批注不写出
+ */
+public class WriterWithSpreadsheetML {
+
+    private static final String NS_MAIN = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    private static final String NS_R    = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String NS_RELS = "http://schemas.openxmlformats.org/package/2006/relationships";
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+
+    private static final int MAX_ROWS = SpreadsheetVersion.EXCEL2007.getMaxRows();
+    private static final int FIRST_CUSTOM_FORMAT = 164; // 自定义数字格式的起始编号，之前的是内置格式
+
+    // styles.xml中cellXfs的下标，2之后是带格式的数据列样式
+    private static final int HEADER_STYLE = 1;
+    private static final int COLUMN_STYLE = 2;
+
+    private final OutputStream outputStream;
+    private ZipOutputStream zip;
+    private java.io.Writer out;
+
+    private final List<String> sheetNames = new ArrayList<>(); // 已写出的sheet，按顺序
+    private final Set<String> usedNames = new HashSet<>(); // 已写出和配置的sheet名称，excel不区分大小写
+    private final Map<String, Integer> formatStyles = new LinkedHashMap<>(); // 单元格格式对应的样式下标
+
+    private final Map<RowPlan, String> headerXml = new IdentityHashMap<>(); // 每个类的列宽和表头行
+    private final Map<Class<? extends Options>, String[]> optionsCache = new HashMap<>(); // 下拉选项数据源，每个Options只实例化一次
+    private final Map<Class<? extends Options>, Integer> optionsColumns = new LinkedHashMap<>(); // 放到隐藏sheet中的下拉选项所在的列
+
+    public WriterWithSpreadsheetML(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * 配置中没有依赖POI对象的部分时才能直接写xml
+     */
+    public static boolean supports(Writer writer) {
+        if (writer.withRaw() || null == writer.getGridSheetList()) {
+            return false;
+        }
+        for (GridSheet gridSheet : writer.getGridSheetList()) {
+            boolean extraInfo = null != gridSheet.extraInfo() && gridSheet.extraInfo().haveExtraInfo();
+            // 分组写出需要同时往多个sheet写，由SXSSF完成
+            if (extraInfo || null != gridSheet.styleConfig() || gridSheet.headLineRow() != 1 || gridSheet.groupBy()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void writeSheet(Writer writer) throws WriterException {
+        try (ZipOutputStream zos = new ZipOutputStream(outputStream, StandardCharsets.UTF_8)) {
+            zos.setLevel(writer.deflateLevel());
+            this.zip = zos;
+            this.out = new BufferedWriter(new OutputStreamWriter(zos, StandardCharsets.UTF_8), 64 * 1024);
+
+            for (GridSheet gridSheet : writer.getGridSheetList()) {
+                usedNames.add(gridSheet.sheetName().toLowerCase());
+            }
+            for (GridSheet gridSheet : writer.getGridSheetList()) {
+                try {
+                    this.writeGridSheet(writer, gridSheet);
+                } catch (IOException | WriterException e) {
+                    throw e;
+                } catch (Exception e) {
+                    // 数据源(Stream、Iterator、PageFetcher)或者转换中途失败，和ExcelWriter一样统一抛出WriterException
+                    throw new WriterException("sheet [" + gridSheet.sheetName() + "] write row error", e);
+                }
+            }
+            this.writeOptionsSheet();
+
+            this.writeStyles();
+            this.writeWorkbook();
+            this.writeContentTypes();
+            zos.finish();
+        } catch (IOException e) {
+            throw new WriterException("workbook write to OutputStream error", e);
+        }
+    }
+
+    private void writeGridSheet(Writer writer, GridSheet gridSheet) throws IOException, WriterException {
+        Iterator<?> rows  = gridSheet.rows();
+        Object firstRow   = rows.hasNext() ? rows.next() : null;
+        Class<?> rowClass = null != firstRow ? firstRow.getClass() : gridSheet.clazz();
+        if (null == rowClass) {
+            throw new WriterException("sheet [" + gridSheet.sheetName() + "] has no data and no class");
+        }
+
+        RowPlan rowPlan = RowPlan.of(rowClass);
+        List<RowPlan.Column> columns = rowPlan.columns();
+        String[] columnNames = new String[columns.size()];
+        int[] columnStyles = new int[columns.size()];
+        for (int i = 0; i < columnNames.length; i++) {
+            columnNames[i] = CellReference.convertNumToColString(columns.get(i).index());
+            columnStyles[i] = this.formatStyle(columns.get(i).format());
+        }
+
+        int rowNum = gridSheet.startRow();
+        if (rowNum == 0) {
+            rowNum = gridSheet.headLineRow();
+        }
+        int firstDataRow = rowNum;
+        int rowLimit = rowLimit(writer, firstDataRow);
+        long totalRow = 0;
+        int part = 1;
+
+        this.startSheet(gridSheet.sheetName(), rowPlan);
+        try (RowPipeline cellRows = new RowPipeline(rowPlan, firstRow, rows, writer.parallelism())) {
+            while (cellRows.hasNext()) {
+                if (rowNum >= rowLimit) {
+                    this.endSheet(rowPlan, firstDataRow, rowNum - 1);
+                    totalRow += rowNum - firstDataRow;
+
+                    this.startSheet(ExcelWriter.nextSheetName(gridSheet.sheetName(), ++part,
+                            name -> usedNames.contains(name.toLowerCase())), rowPlan);
+                    rowNum = gridSheet.headLineRow();
+                    firstDataRow = rowNum;
+                    rowLimit = rowLimit(writer, firstDataRow);
+                }
+                this.writeRow(rowNum++, cellRows.next(), columnNames, columnStyles);
+            }
+        }
+        this.endSheet(rowPlan, firstDataRow, rowNum - 1);
+        gridSheet.setTotalRow(totalRow + rowNum - firstDataRow);
+    }
+
+    private static int rowLimit(Writer writer, int firstDataRow) {
+        if (writer.maxRowsPerSheet() > 0) {
+            return (int) Math.min(MAX_ROWS, (long) firstDataRow + writer.maxRowsPerSheet());
+        }
+        return MAX_ROWS;
+    }
+
+    /**
+     * 开始一个sheet：列宽和表头
+     */
+    private void startSheet(String sheetName, RowPlan rowPlan) throws IOException {
+        this.putSheetEntry(sheetName);
+
+        out.write(XML_DECLARATION);
+        out.write("<worksheet xmlns=\"" + NS_MAIN + "\" xmlns:r=\"" + NS_R + "\">");
+
+        // 列宽和表头行每个类只拼一次，分组、续写的sheet直接复用
+        String header = headerXml.get(rowPlan);
+        if (null == header) {
+            header = this.headerXml(rowPlan.headerLayout(false));
+            headerXml.put(rowPlan, header);
+        }
+        out.write(header);
+    }
+
+    /**
+     * 单元格需要按列顺序写出，单行表头布局已经按列索引排序
+     */
+    private String headerXml(HeaderLayout layout) {
+        StringBuilder xml = new StringBuilder();
+        if (!layout.cells().isEmpty()) {
+            xml.append("<cols>");
+            for (HeaderLayout.HeaderCell cell : layout.cells()) {
+                String col = String.valueOf(cell.col() + 1);
+                xml.append("<col min=\"").append(col).append("\" max=\"").append(col)
+                        .append("\" width=\"").append(cell.width() / 256.0).append("\" customWidth=\"1\"/>");
+            }
+            xml.append("</cols>");
+        }
+
+        xml.append("<sheetData>");
+        xml.append("<row r=\"1\">");
+        for (HeaderLayout.HeaderCell cell : layout.cells()) {
+            xml.append("<c r=\"").append(CellReference.convertNumToColString(cell.col())).append("1\" s=\"")
+                    .append(HEADER_STYLE).append("\" t=\"inlineStr\"><is><t");
+            xml.append(textStart(cell.text())).append(escape(cell.text()));
+            xml.append("</t></is></c>");
+        }
+        xml.append("</row>");
+        return xml.toString();
+    }
+
+    private void putSheetEntry(String sheetName) throws IOException {
+        WorkbookUtil.validateSheetName(sheetName);
+        for (String name : sheetNames) {
+            if (name.equalsIgnoreCase(sheetName)) {
+                throw E.illegalArgumentException("The workbook already contains a sheet named ''{0}''", sheetName);
+            }
+        }
+        sheetNames.add(sheetName);
+        usedNames.add(sheetName.toLowerCase());
+        zip.putNextEntry(new ZipEntry("xl/worksheets/sheet" + sheetNames.size() + ".xml"));
+    }
+
+    /**
+     * 结束一个sheet：数据行之后写每列一个的下拉选项校验
+     */
+    private void endSheet(RowPlan rowPlan, int firstRow, int lastRow) throws IOException {
+        out.write("</sheetData>");
+
+        if (lastRow >= firstRow) {
+            List<String> validations = new ArrayList<>();
+            for (ExcelColumn column : rowPlan.annotations()) {
+                String[] datasource = this.getOptions(column.options());
+                if (null == datasource || datasource.length == 0) {
+                    continue;
+                }
+                String col = CellReference.convertNumToColString(column.index());
+                validations.add("<dataValidation type=\"list\" allowBlank=\"1\" showErrorMessage=\"1\" errorTitle=\"提示\" error=\"请从下拉列表选取\" sqref=\""
+                        + col + (firstRow + 1) + ":" + col + (lastRow + 1) + "\"><formula1>"
+                        + escape(this.optionsFormula(column.options(), datasource)) + "</formula1></dataValidation>");
+            }
+            if (!validations.isEmpty()) {
+                out.write("<dataValidations count=\"" + validations.size() + "\">");
+                for (String validation : validations) {
+                    out.write(validation);
+                }
+                out.write("</dataValidations>");
+            }
+        }
+
+        out.write("</worksheet>");
+        out.flush();
+        zip.closeEntry();
+    }
+
+    private void writeRow(int rowNum, Object[] cells, String[] columnNames, int[] columnStyles) throws IOException {
+        String r = String.valueOf(rowNum + 1);
+        out.write("<row r=\"");
+        out.write(r);
+        out.write("\">");
+        for (int i = 0; i < cells.length; i++) {
+            Object value = cells[i];
+            if (value == null) {
+                continue;
+            }
+            out.write("<c r=\"");
+            out.write(columnNames[i]);
+            out.write(r);
+            out.write("\" s=\"");
+            out.write(String.valueOf(columnStyles[i]));
+
+            if (value instanceof Double) {
+                double number = (Double) value;
+                if (Double.isFinite(number)) {
+                    out.write("\"><v>");
+                    out.write(Double.toString(number));
+                } else {
+                    // 和POI一致，NaN写成#NUM!，无穷大写成#DIV/0!
+                    out.write("\" t=\"e\"><v>");
+                    out.write(Double.isNaN(number) ? "#NUM!" : "#DIV/0!");
+                }
+                out.write("</v></c>");
+            } else if (value instanceof Boolean) {
+                out.write("\" t=\"b\"><v>");
+                out.write((Boolean) value ? '1' : '0');
+                out.write("</v></c>");
+            } else if (value instanceof Date) {
+                out.write("\"><v>");
+                out.write(Double.toString(DateUtil.getExcelDate((Date) value)));
+                out.write("</v></c>");
+            } else {
+                out.write("\" t=\"inlineStr\"><is><t");
+                writeText(value.toString());
+                out.write("</t></is></c>");
+            }
+        }
+        out.write("</row>");
+    }
+
+    /**
+     * 写出&lt;t&gt;的剩余部分和文本，首尾有空白时需要保留空白
+     */
+    private void writeText(String text) throws IOException {
+        out.write(textStart(text));
+        writeEscaped(out, text);
+    }
+
+    /**
+     * &lt;t标签的剩余部分，首尾有空白时需要保留空白
+     */
+    private static String textStart(String text) {
+        if (!text.isEmpty() && (Character.isWhitespace(text.charAt(0)) || Character.isWhitespace(text.charAt(text.length() - 1)))) {
+            return " xml:space=\"preserve\">";
+        }
+        return ">";
+    }
+
+    private static String escape(String text) {
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); i++) {
+            appendEscaped(sb, text.charAt(i));
+        }
+        return sb.toString();
+    }
+
+    private static void writeEscaped(java.io.Writer out, String text) throws IOException {
+        int start = 0;
+        for (int i = 0, len = text.length(); i < len; i++) {
+            char c = text.charAt(i);
+            if (c == '<' || c == '>' || c == '&' || c == '"' || (c < 0x20 && c != '\t' && c != '\n' && c != '\r') || c == 0xFFFE || c == 0xFFFF) {
+                out.write(text, start, i - start);
+                StringBuilder sb = new StringBuilder(6);
+                appendEscaped(sb, c);
+                out.write(sb.toString());
+                start = i + 1;
+            }
+        }
+        out.write(text, start, text.length() - start);
+    }
+
+    /**
+     * xml中不允许出现的控制字符按OOXML的_xHHHH_转义，和POI写出的一致
+     */
+    private static void appendEscaped(StringBuilder sb, char c) {
+        switch (c) {
+            case '<': sb.append("&lt;"); break;
+            case '>': sb.append("&gt;"); break;
+            case '&': sb.append("&amp;"); break;
+            case '"': sb.append("&quot;"); break;
+            case '\t': case '\n': case '\r': sb.append(c); break;
+            default:
+                if (c < 0x20 || c == 0xFFFE || c == 0xFFFF) {
+                    sb.append(String.format("_x%04X_", (int) c));
+                } else {
+                    sb.append(c);
+                }
+        }
+    }
+
+    private int formatStyle(String format) {
+        if (null == format) {
+            return COLUMN_STYLE;
+        }
+        return formatStyles.computeIfAbsent(format, key -> COLUMN_STYLE + 1 + formatStyles.size());
+    }
+
+    private String[] getOptions(Class<? extends Options> clazz) {
+        if (null == clazz || ExcelColumn.Void.class.equals(clazz)) {
+            return null;
+        }
+        String[] datasource = optionsCache.get(clazz);
+        if (datasource == null) {
+            try {
+                datasource = ExcelWriter.newOptions(clazz);
+            } catch (Exception e) {
+                throw E.unexpected(e);
+            }
+            optionsCache.put(clazz, datasource);
+        }
+        return datasource;
+    }
+
+    /**
+     * 选项少时直接写进校验公式，选项中的双引号需要转义；多或者太长时写到隐藏sheet的一列中，通过名称引用
+     */
+    private String optionsFormula(Class<? extends Options> clazz, String[] datasource) {
+        if (ExcelWriter.isExplicitOptions(datasource)) {
+            return "\"" + String.join(",", datasource).replace("\"", "\"\"") + "\"";
+        }
+        Integer col = optionsColumns.get(clazz);
+        if (null == col) {
+            col = optionsColumns.size();
+            optionsColumns.put(clazz, col);
+        }
+        return ExcelWriter.OPTIONS_SHEET_NAME + "_" + col;
+    }
+
+    /**
+     * 下拉选项sheet放到最后并隐藏，每个Options一列
+     */
+    private void writeOptionsSheet() throws IOException {
+        if (optionsColumns.isEmpty()) {
+            return;
+        }
+        String[][] columns = new String[optionsColumns.size()][];
+        int maxLength = 0;
+        for (Map.Entry<Class<? extends Options>, Integer> entry : optionsColumns.entrySet()) {
+            columns[entry.getValue()] = optionsCache.get(entry.getKey());
+            maxLength = Math.max(maxLength, columns[entry.getValue()].length);
+        }
+
+        this.putSheetEntry(ExcelWriter.OPTIONS_SHEET_NAME);
+        out.write(XML_DECLARATION);
+        out.write("<worksheet xmlns=\"" + NS_MAIN + "\" xmlns:r=\"" + NS_R + "\"><sheetData>");
+        for (int i = 0; i < maxLength; i++) {
+            String r = String.valueOf(i + 1);
+            out.write("<row r=\"" + r + "\">");
+            for (int col = 0; col < columns.length; col++) {
+                if (i < columns[col].length && null != columns[col][i]) {
+                    out.write("<c r=\"" + CellReference.convertNumToColString(col) + r + "\" t=\"inlineStr\"><is><t");
+                    writeText(columns[col][i]);
+                    out.write("</t></is></c>");
+                }
+            }
+            out.write("</row>");
+        }
+        out.write("</sheetData></worksheet>");
+        out.flush();
+        zip.closeEntry();
+    }
+
+    /**
+     * 和Const.DEFAULT_STYLE的表头、数据列样式一致
+     */
+    private void writeStyles() throws IOException {
+        zip.putNextEntry(new ZipEntry("xl/styles.xml"));
+        out.write(XML_DECLARATION);
+        out.write("<styleSheet xmlns=\"" + NS_MAIN + "\">");
+
+        if (!formatStyles.isEmpty()) {
+            out.write("<numFmts count=\"" + formatStyles.size() + "\">");
+            int numFmtId = FIRST_CUSTOM_FORMAT;
+            for (String format : formatStyles.keySet()) {
+                out.write("<numFmt numFmtId=\"" + numFmtId++ + "\" formatCode=\"" + escape(format) + "\"/>");
+            }
+            out.write("</numFmts>");
+        }
+
+        String fontName = escape(Const.DEFAULT_FONT_NAME);
+        out.write("<fonts count=\"3\">"
+                + "<font><sz val=\"11\"/><name val=\"Calibri\"/><family val=\"2\"/></font>"
+                + "<font><b/><sz val=\"16\"/><name val=\"" + fontName + "\"/></font>"
+                + "<font><sz val=\"14\"/><name val=\"" + fontName + "\"/></font>"
+                + "</fonts>");
+        out.write("<fills count=\"3\">"
+                + "<fill><patternFill patternType=\"none\"/></fill>"
+                + "<fill><patternFill patternType=\"gray125\"/></fill>"
+                + "<fill><patternFill patternType=\"solid\"><fgColor indexed=\"9\"/><bgColor indexed=\"64\"/></patternFill></fill>"
+                + "</fills>");
+        out.write("<borders count=\"2\">"
+                + "<border><left/><right/><top/><bottom/><diagonal/></border>"
+                + "<border><left style=\"thin\"/><right style=\"thin\"/><top style=\"thin\"/><bottom style=\"thin\"/><diagonal/></border>"
+                + "</borders>");
+        out.write("<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>");
+
+        out.write("<cellXfs count=\"" + (COLUMN_STYLE + 1 + formatStyles.size()) + "\">");
+        out.write("<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>");
+        out.write("<xf numFmtId=\"0\" fontId=\"1\" fillId=\"2\" borderId=\"1\" xfId=\"0\" applyFont=\"1\" applyFill=\"1\" applyBorder=\"1\" applyAlignment=\"1\">"
+                + "<alignment horizontal=\"center\" vertical=\"center\"/></xf>");
+        out.write(columnXf(0));
+        for (int i = 0; i < formatStyles.size(); i++) {
+            out.write(columnXf(FIRST_CUSTOM_FORMAT + i));
+        }
+        out.write("</cellXfs>");
+
+        out.write("<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>");
+        out.write("</styleSheet>");
+        out.flush();
+        zip.closeEntry();
+    }
+
+    private static String columnXf(int numFmtId) {
+        return "<xf numFmtId=\"" + numFmtId + "\" fontId=\"2\" fillId=\"0\" borderId=\"1\" xfId=\"0\" applyNumberFormat=\"1\" applyFont=\"1\" applyBorder=\"1\" applyAlignment=\"1\">"
+                + "<alignment horizontal=\"center\" vertical=\"center\" wrapText=\"1\"/></xf>";
+    }
+
+    private void writeWorkbook() throws IOException {
+        boolean hasOptionsSheet = !optionsColumns.isEmpty();
+
+        zip.putNextEntry(new ZipEntry("xl/workbook.xml"));
+        out.write(XML_DECLARATION);
+        out.write("<workbook xmlns=\"" + NS_MAIN + "\" xmlns:r=\"" + NS_R + "\"><sheets>");
+        for (int i = 0; i < sheetNames.size(); i++) {
+            boolean hidden = hasOptionsSheet && i == sheetNames.size() - 1;
+            out.write("<sheet name=\"" + escape(sheetNames.get(i)) + "\" sheetId=\"" + (i + 1) + "\""
+                    + (hidden ? " state=\"hidden\"" : "") + " r:id=\"rId" + (i + 1) + "\"/>");
+        }
+        out.write("</sheets>");
+        if (hasOptionsSheet) {
+            out.write("<definedNames>");
+            for (Map.Entry<Class<? extends Options>, Integer> entry : optionsColumns.entrySet()) {
+                String col = CellReference.convertNumToColString(entry.getValue());
+                out.write("<definedName name=\"" + ExcelWriter.OPTIONS_SHEET_NAME + "_" + entry.getValue() + "\">'"
+                        + ExcelWriter.OPTIONS_SHEET_NAME + "'!$" + col + "$1:$" + col + "$" + optionsCache.get(entry.getKey()).length
+                        + "</definedName>");
+            }
+            out.write("</definedNames>");
+        }
+        out.write("</workbook>");
+        out.flush();
+        zip.closeEntry();
+
+        zip.putNextEntry(new ZipEntry("xl/_rels/workbook.xml.rels"));
+        out.write(XML_DECLARATION);
+        out.write("<Relationships xmlns=\"" + NS_RELS + "\">");
+        for (int i = 0; i < sheetNames.size(); i++) {
+            out.write("<Relationship Id=\"rId" + (i + 1) + "\" Type=\"" + NS_R + "/worksheet\" Target=\"worksheets/sheet" + (i + 1) + ".xml\"/>");
+        }
+        out.write("<Relationship Id=\"rId" + (sheetNames.size() + 1) + "\" Type=\"" + NS_R + "/styles\" Target=\"styles.xml\"/>");
+        out.write("</Relationships>");
+        out.flush();
+        zip.closeEntry();
+
+        zip.putNextEntry(new ZipEntry("_rels/.rels"));
+        out.write(XML_DECLARATION);
+        out.write("<Relationships xmlns=\"" + NS_RELS + "\">"
+                + "<Relationship Id=\"rId1\" Type=\"" + NS_R + "/officeDocument\" Target=\"xl/workbook.xml\"/>"
+                + "</Relationships>");
+        out.flush();
+        zip.closeEntry();
+    }
+
+    private void writeContentTypes() throws IOException {
+        zip.putNextEntry(new ZipEntry("[Content_Types].xml"));
+        out.write(XML_DECLARATION);
+        out.write("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                + "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+                + "<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>");
+        for (int i = 0; i < sheetNames.size(); i++) {
+            out.write("<Override PartName=\"/xl/worksheets/sheet" + (i + 1) + ".xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
+        }
+        out.write("</Types>");
+        out.flush();
+        zip.closeEntry();
+    }
+}
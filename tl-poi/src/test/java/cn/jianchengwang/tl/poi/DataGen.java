@@ -9,6 +9,7 @@ import cn.jianchengwang.tl.poi.vo.Worker;
 import java.time.LocalDate;
 import java.util.*;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * Created by wjc on 2019/9/6
@@ -26,6 +27,13 @@ public class DataGen {
         return workerList;
     }
 
+    // 按需生成，模拟数据库游标
+    public static Stream<Worker> genWorkerStream(int number) {
+        List<String> departList = Arrays.asList("产品", "研发", "市场调研", "销售");
+        return IntStream.rangeClosed(1,number).mapToObj(i ->
+                new Worker(UUID.randomUUID().toString(), i + "", "java" + i, departList.get(random.nextInt(departList.size())), "", ""));
+    }
+
     public static List<Student> genStudentList(int number) {
         List<Student> studentList = new ArrayList<>();
         IntStream.rangeClosed(1,number).forEach(i -> {
@@ -2,13 +2,32 @@ package cn.jianchengwang.tl.poi;
 
 import cn.jianchengwang.tl.poi.excel.Reader;
 import cn.jianchengwang.tl.poi.excel.config.GridSheet;
+import cn.jianchengwang.tl.poi.excel.exception.ReaderException;
 import cn.jianchengwang.tl.poi.vo.Worker;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.List;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Created by wjc on 2019/9/6
@@ -50,4 +69,324 @@ public class ReaderTest {
             System.out.println(gridSheet.getSheetName());
         });
     }
+
+    @Test
+    public void readXLSXStreaming() {
+
+        File fromFile = new File(OUT_DIR + "/testXlSX.xlsx");
+        Reader<Worker> reader = Reader.create(Worker.class).streaming(1000);
+        try (Stream<Worker> stream = reader.from(fromFile).asStream()) {
+            System.out.println(stream.filter(worker -> worker.getName() != null).count());
+        }
+    }
+
+    @Test
+    public void readXLSXInBatches() {
+
+        File fromFile = new File(OUT_DIR + "/testXlSX.xlsx");
+        Reader<Worker> reader = Reader.create(Worker.class);
+        reader.from(fromFile).readInBatches(5000, workers -> {
+            System.out.println(workers.size() + " " + workers.get(0).getName());
+        });
+    }
+
+    @Test
+    public void readXLSXPreview() {
+
+        File fromFile = new File(OUT_DIR + "/testXlSX.xlsx");
+        List<Worker> workers = Reader.create(Worker.class).from(fromFile).skip(10).limit(50).asList();
+        Assert.assertEquals(50, workers.size());
+        Assert.assertEquals("java11", workers.get(0).getJobTitle()); // 第11行数据
+        Assert.assertEquals("java60", workers.get(49).getJobTitle());
+    }
+
+    @Test
+    public void readXLSXLimitStopsParsing() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            for (String sheetName : new String[] {"a", "b", "c"}) {
+                Sheet sheet = workbook.createSheet(sheetName);
+                Row header = sheet.createRow(0);
+                String[] headers = {"部门", "职称", "工作年限", "姓名"};
+                for (int i = 0; i < headers.length; i++) {
+                    header.createCell(i).setCellValue(headers[i]);
+                }
+                for (int i = 1; i <= 2000; i++) {
+                    Row row = sheet.createRow(i);
+                    row.createCell(0).setCellValue(sheetName);
+                    row.createCell(1).setCellValue(sheetName + i);
+                    row.createCell(2).setCellValue(String.valueOf(i));
+                    row.createCell(3).setCellValue("姓名" + i);
+                }
+            }
+            workbook.write(bytes);
+        }
+
+        // 选中的sheet b在第200行之后截断，后面的sheet c整个损坏，读到limit之后还继续解析就会报错
+        File file = new File(OUT_DIR + "/readXLSXLimitStopsParsing.xlsx");
+        file.getParentFile().mkdirs();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+             ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    entryBytes.write(buf, 0, n);
+                }
+                byte[] content = entryBytes.toByteArray();
+                if ("xl/worksheets/sheet2.xml".equals(entry.getName())) {
+                    String xml = new String(content, StandardCharsets.UTF_8);
+                    content = (xml.substring(0, xml.indexOf("<row r=\"200\"")) + "<row <broken").getBytes(StandardCharsets.UTF_8);
+                } else if ("xl/worksheets/sheet3.xml".equals(entry.getName())) {
+                    content = "<broken".getBytes(StandardCharsets.UTF_8);
+                }
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                out.write(content);
+                out.closeEntry();
+            }
+        }
+
+        List<Worker> workers = Reader.create(GridSheet.build().clazz(Worker.class).sheetName("b"))
+                .from(file).skip(10).limit(50).asList();
+        Assert.assertEquals(50, workers.size());
+        Assert.assertEquals("b11", workers.get(0).getJobTitle());
+        Assert.assertEquals("b60", workers.get(49).getJobTitle());
+    }
+
+    private static final String CSV_HEADER = "部门,职称,工作年限,姓名\r\n";
+
+    private File writeCsv(String name, String content) throws IOException {
+        File file = new File(OUT_DIR + "/" + name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void readCsvQuoted() throws IOException {
+        String content = CSV_HEADER
+                + "\"a,b\",\"line1\r\nline2\",3,\"say \"\"hi\"\"\"\r\n"
+                + "d,\"\",1,n";
+        List<Worker> workers = Reader.create(Worker.class).from(writeCsv("readCsvQuoted.csv", content)).asList();
+        Assert.assertEquals(2, workers.size());
+        Assert.assertEquals("a,b", workers.get(0).getDepartment());
+        Assert.assertEquals("line1\r\nline2", workers.get(0).getJobTitle());
+        Assert.assertEquals("say \"hi\"", workers.get(0).getName());
+        Assert.assertEquals("", workers.get(1).getJobTitle());
+        Assert.assertEquals("n", workers.get(1).getName());
+    }
+
+    @Test
+    public void readCsvRecordAcrossBuffer() {
+        // 一条记录超过解析器64K字符的缓冲，""和\r\n会落在缓冲的边界上
+        StringBuilder longField = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            longField.append("x\"\r\n");
+        }
+        String expected = longField.toString();
+        String quoted = "\"" + expected.replace("\"", "\"\"") + "\"";
+        String content = CSV_HEADER + "d1," + quoted + ",1,n1\r\nd2,t2,2,n2\r\n";
+
+        InputStream in = new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+        List<Worker> workers = Reader.create(Worker.class).from(in).asList();
+        Assert.assertEquals(2, workers.size());
+        Assert.assertEquals(expected, workers.get(0).getJobTitle());
+        Assert.assertEquals("n1", workers.get(0).getName());
+        Assert.assertEquals("d2", workers.get(1).getDepartment());
+    }
+
+    @Test
+    public void readCsvWithBom() throws IOException {
+        File file = writeCsv("readCsvWithBom.csv", "\uFEFF" + CSV_HEADER + "d,t,1,n\r\n");
+        Reader<Worker> reader = Reader.create(GridSheet.build().clazz(Worker.class).headLineRow(0));
+        List<Worker> workers = reader.from(file).asList();
+        // BOM不能混进第一个字段
+        Assert.assertEquals("部门", workers.get(0).getDepartment());
+        Assert.assertEquals("d", workers.get(1).getDepartment());
+    }
+
+    @Test
+    public void readCsvEmptyField() throws IOException {
+        // 引号包裹的空字段是一条记录，只有完全没有字符的空行才跳过
+        File file = writeCsv("readCsvEmptyField.csv", CSV_HEADER + "\"\"\r\n\r\nd,t,1,n\r\n");
+        List<Worker> workers = Reader.create(Worker.class).from(file).asList();
+        Assert.assertEquals(2, workers.size());
+        Assert.assertEquals("", workers.get(0).getDepartment());
+        Assert.assertEquals("d", workers.get(1).getDepartment());
+    }
+
+    @Test
+    public void readCsvParallel() throws IOException {
+        StringBuilder content = new StringBuilder(CSV_HEADER);
+        for (int i = 0; i < 250000; i++) {
+            content.append("部门").append(i % 7).append(',')
+                    .append("\"java,").append(i).append("\r\n\"\"senior\"\"\",")
+                    .append(i).append(",name").append(i).append("\r\n");
+        }
+        File file = writeCsv("readCsvParallel.csv", content.toString());
+        // 超过两倍的分块最小值(4M)，至少切成三块
+        Assert.assertTrue(file.length() > 4 * 1024 * 1024 * 2);
+
+        List<Worker> parallel = Reader.create(Worker.class).from(file).parallelism(4).asList();
+        List<Worker> sequential;
+        try (InputStream in = new FileInputStream(file)) {
+            sequential = Reader.create(Worker.class).from(in).asList();
+        }
+        Assert.assertEquals(250000, sequential.size());
+        Assert.assertEquals(sequential, parallel);
+
+        // 提前关闭时不再解析后面的块
+        try (Stream<Worker> stream = Reader.create(Worker.class).from(file).parallelism(2).asStream()) {
+            Assert.assertEquals(sequential.get(0), stream.findFirst().get());
+        }
+    }
+
+    private File writeWorkersCsv(String name, int rows) throws IOException {
+        StringBuilder content = new StringBuilder(CSV_HEADER);
+        for (int i = 0; i < rows; i++) {
+            content.append('d').append(i).append(",java,").append(i).append(",n").append(i).append("\r\n");
+        }
+        return writeCsv(name, content.toString());
+    }
+
+    private static boolean streamReaderAlive() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> "tl-poi-stream-reader".equals(thread.getName()) && thread.isAlive());
+    }
+
+    private static String firstWithoutClose(File file) {
+        return Reader.create(Worker.class).streaming(100).from(file).asStream().findFirst().get().getDepartment();
+    }
+
+    @Test
+    public void readStreamingNotClosed() throws Exception {
+        File file = writeWorkersCsv("readStreamingNotClosed.csv", 5000);
+        Assert.assertEquals("d0", firstWithoutClose(file));
+        // 流没有关闭，被回收后解析线程自己结束
+        for (int i = 0; i < 100 && streamReaderAlive(); i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Assert.assertFalse(streamReaderAlive());
+    }
+
+    @Test
+    public void readStreamingReuseReader() throws IOException {
+        File file = writeWorkersCsv("readStreamingReuseReader.csv", 5000);
+        Reader<Worker> reader = Reader.create(Worker.class).streaming(100).from(file);
+        try (Stream<Worker> stream = reader.asStream()) {
+            Iterator<Worker> rows = stream.iterator();
+            Assert.assertEquals("d0", rows.next().getDepartment());
+
+            // 流还开着时同一个reader再读一次，两次读取互不影响
+            long[] batchRows = new long[1];
+            reader.readInBatches(1000, batch -> batchRows[0] += batch.size());
+            Assert.assertEquals(5000, batchRows[0]);
+
+            long streamRows = 1;
+            while (rows.hasNext()) {
+                rows.next();
+                streamRows++;
+            }
+            Assert.assertEquals(5000, streamRows);
+        }
+    }
+
+    /**
+     * 读到limit个字节后抛出IOException，记录是否被关闭
+     */
+    private static class BrokenStream extends FilterInputStream {
+        private int remaining;
+        private boolean closed;
+
+        BrokenStream(byte[] bytes, int limit) {
+            super(new ByteArrayInputStream(bytes));
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                throw new IOException("broken stream");
+            }
+            int n = super.read(b, off, Math.min(len, remaining));
+            remaining -= Math.max(n, 0);
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+    private static String[] spilledFiles() {
+        String[] files = new File(System.getProperty("java.io.tmpdir")).list((dir, name) -> name.startsWith("tl-poi-reader-"));
+        return null == files ? new String[0] : files;
+    }
+
+    @Test
+    public void readBrokenStream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("worker");
+            for (int i = 0; i < 2000; i++) {
+                sheet.createRow(i).createCell(0).setCellValue("姓名" + i);
+            }
+            workbook.write(out);
+        }
+        int spilled = spilledFiles().length;
+
+        // 超过spillThreshold落地到临时文件时出错，以及还在内存中缓冲时出错，输入流都要关闭，临时文件都要删除
+        for (int threshold : new int[] {1024, 1024 * 1024}) {
+            BrokenStream in = new BrokenStream(out.toByteArray(), 8192);
+            try {
+                Reader.create(Worker.class).spillThreshold(threshold).from(in).asList();
+                Assert.fail();
+            } catch (ReaderException e) {
+                Assert.assertTrue(e.getCause() instanceof IOException);
+            }
+            Assert.assertTrue(in.closed);
+            Assert.assertEquals(spilled, spilledFiles().length);
+        }
+    }
+
+    @Test
+    public void readXLSXSharedStringsOnDisk() throws IOException {
+        // XSSFWorkbook写出的字符串都在共享字符串表中
+        File file = new File(OUT_DIR + "/readXLSXSharedStringsOnDisk.xlsx");
+        file.getParentFile().mkdirs();
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); FileOutputStream out = new FileOutputStream(file)) {
+            Sheet sheet = workbook.createSheet("worker");
+            Row header = sheet.createRow(0);
+            String[] headers = {"部门", "职称", "工作年限", "姓名"};
+            for (int i = 0; i < headers.length; i++) {
+                header.createCell(i).setCellValue(headers[i]);
+            }
+            for (int i = 1; i <= 3000; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue("部门" + (i % 13));
+                row.createCell(1).setCellValue("java \"" + (i % 500) + "\" <&>");
+                row.createCell(2).setCellValue(String.valueOf(i % 30));
+                row.createCell(3).setCellValue("姓名" + i);
+            }
+            workbook.write(out);
+        }
+
+        List<Worker> inMemory = Reader.create(Worker.class).from(file).asList();
+        // 缓存比唯一字符串少，大部分字符串从临时文件解码
+        List<Worker> onDisk = Reader.create(Worker.class).sharedStringsOnDisk(100).from(file).asList();
+        Assert.assertEquals(3000, inMemory.size());
+        Assert.assertEquals("java \"7\" <&>", inMemory.get(6).getJobTitle());
+        Assert.assertEquals(inMemory, onDisk);
+    }
 }
@@ -1,12 +1,19 @@
 package cn.jianchengwang.tl.poi;
 
+import cn.jianchengwang.tl.common.FileTool;
 import cn.jianchengwang.tl.poi.excel.Writer;
 import cn.jianchengwang.tl.poi.excel.config.GridSheet;
+import cn.jianchengwang.tl.poi.excel.enums.ExcelType;
 import cn.jianchengwang.tl.poi.excel.exception.WriterException;
+import cn.jianchengwang.tl.poi.excel.writer.JxlsTemplate;
 import cn.jianchengwang.tl.poi.gridSheet.StudentGridSheet;
 import cn.jianchengwang.tl.poi.vo.BasicForm;
 import cn.jianchengwang.tl.poi.vo.Worker;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -119,6 +126,19 @@ public class WriterJxlsTest {
                 .out(outFile);
     }
 
+    @Test
+    public void testStreamingMultiGrid() throws Exception {
+        InputStream is = WriterJxlsTest.class.getResourceAsStream("/templates/simpleMultiGrid.xlsx");
+        File outFile = new File(OUT_DIR + "/streamingMultiGrid.xlsx");
+        Writer.create()
+                .template(is)
+                .streamingTemplate(100) // SXSSF渲染，每个sheet内存中只保留100行
+                .enableAutoGroupBy(true)
+                .addSheetBuilder(Worker.class, workerList)
+                .removeSheet("Sheet1")
+                .out(outFile);
+    }
+
    @Test
     public void testStudentGrid() throws WriterException {
        InputStream is = WriterJxlsTest.class.getClass().getResourceAsStream("/templates/student.xls");
@@ -139,4 +159,74 @@ public class WriterJxlsTest {
                 .putVar("basicform", basicForm)
                 .out(outFile);
     }
+
+    @Test
+    public void testTemplateRegistry() {
+        // 按id和按内容注册，同一个模板反复渲染时不再读文件
+        JxlsTemplate byId = JxlsTemplate.register("simpleHello", WriterJxlsTest.class.getResourceAsStream("/templates/simpleHello.xls"));
+        JxlsTemplate byHash = JxlsTemplate.register(WriterJxlsTest.class.getResourceAsStream("/templates/simpleHello.xls"));
+        Assert.assertSame(byId, JxlsTemplate.get("simpleHello"));
+        Assert.assertSame(byHash, JxlsTemplate.get(byId.sha256()));
+        Assert.assertSame(byHash, JxlsTemplate.register(WriterJxlsTest.class.getResourceAsStream("/templates/simpleHello.xls")));
+        Assert.assertEquals(ExcelType.XLS, byId.excelType());
+        Assert.assertEquals(ExcelType.XLS, Writer.create().templateId("simpleHello").getExcelType());
+
+        Assert.assertSame(byId, JxlsTemplate.remove("simpleHello"));
+        Assert.assertNull(JxlsTemplate.get("simpleHello"));
+    }
+
+    @Test
+    public void testRenderRegisteredTemplateTwice() throws Exception {
+        // 第二次渲染按第一次记下的命令定义构建区域，结果和第一次一样按数据展开
+        JxlsTemplate.register("simpleGrid", WriterJxlsTest.class.getResourceAsStream("/templates/simpleGrid.xls"));
+        for (int size : new int[] {3, 5}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Writer.create()
+                    .templateId("simpleGrid")
+                    .putVar("headers", Arrays.asList("姓名", "工作年限", "职称"))
+                    .putVar("data", DataGen.genWorkerList(size))
+                    .putVar("props", new String[]{"name", "workYear", "jobTitle"})
+                    .out(out);
+            try (Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(out.toByteArray()))) {
+                Sheet sheet = workbook.getSheetAt(0);
+                Assert.assertEquals("姓名", sheet.getRow(sheet.getLastRowNum() - size).getCell(0).getStringCellValue());
+            }
+        }
+        JxlsTemplate.remove("simpleGrid");
+
+        JxlsTemplate.register("simpleMultiGrid", WriterJxlsTest.class.getResourceAsStream("/templates/simpleMultiGrid.xlsx"));
+        for (int rowWindow : new int[] {0, 0, 100, 100}) {
+            List<Worker> workers = DataGen.genWorkerList(rowWindow + 10);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Writer.create()
+                    .templateId("simpleMultiGrid")
+                    .streamingTemplate(rowWindow)
+                    .enableAutoGroupBy(true)
+                    .addSheetBuilder(Worker.class, workers)
+                    .removeSheet("Sheet1")
+                    .out(out);
+            try (Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(out.toByteArray()))) {
+                int rows = 0;
+                for (Sheet sheet : workbook) {
+                    rows += sheet.getPhysicalNumberOfRows() - 2; // 去掉标题和表头
+                }
+                Assert.assertEquals(workers.size(), rows);
+            }
+        }
+        JxlsTemplate.remove("simpleMultiGrid");
+    }
+
+    @Test
+    public void testTemplateRegistryBounded() throws IOException {
+        byte[] bytes = FileTool.toByteArray(WriterJxlsTest.class.getResourceAsStream("/templates/simpleHello.xls"));
+        List<String> keys = new ArrayList<>();
+        // 按内容注册的模板只保留最近使用的一部分，不会一直增长
+        for (int i = 0; i < 200; i++) {
+            byte[] content = Arrays.copyOf(bytes, bytes.length + 1);
+            content[bytes.length] = (byte) i;
+            keys.add(JxlsTemplate.register(new ByteArrayInputStream(content)).sha256());
+        }
+        Assert.assertNull(JxlsTemplate.get(keys.get(0)));
+        Assert.assertNotNull(JxlsTemplate.get(keys.get(199)));
+    }
 }
@@ -1,18 +1,52 @@
 package cn.jianchengwang.tl.poi;
 
+import cn.jianchengwang.tl.common.exception.ConfigurationException;
 import cn.jianchengwang.tl.poi.excel.Writer;
+import cn.jianchengwang.tl.poi.excel.annotation.ExcelColumn;
 import cn.jianchengwang.tl.poi.excel.config.GridSheet;
 import cn.jianchengwang.tl.poi.excel.config.extrainfo.ExtraInfo;
+import cn.jianchengwang.tl.poi.excel.config.option.Options;
+import cn.jianchengwang.tl.poi.excel.config.style.StyleConfig;
+import cn.jianchengwang.tl.poi.excel.config.style.StyleConsumer;
 import cn.jianchengwang.tl.poi.excel.enums.ExcelType;
 import cn.jianchengwang.tl.poi.excel.exception.WriterException;
 import cn.jianchengwang.tl.poi.vo.Book;
 import cn.jianchengwang.tl.poi.vo.Student;
 import cn.jianchengwang.tl.poi.vo.Worker;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Name;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.usermodel.XSSFDataValidation;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * Created by wjc on 2019/9/6
@@ -41,6 +75,55 @@ public class WriterTest {
                 .out(outFile);
     }
 
+    @Test
+    public void testCsvGzip() throws WriterException {
+        File outFile = new File(OUT_DIR + "/testCSV.csv.gz");
+        Writer.create(ExcelType.CSV)
+                .gzip(true)
+                .addSheet("stream", Worker.class, DataGen.genWorkerStream(1000000)) // 流式写出，内存和行数无关
+                .out(outFile);
+    }
+
+    public static class DateRow {
+        @ExcelColumn(header = "name", index = 0)
+        private String name = "x";
+        @ExcelColumn(header = "date", index = 1)
+        private Date date = new Date(0);
+        @ExcelColumn(header = "localDate", index = 2)
+        private LocalDate localDate = LocalDate.of(2020, 1, 2);
+    }
+
+    @Test
+    public void testCsvUnformattedDate() throws Exception {
+        File outFile = new File(OUT_DIR + "/testCsvUnformattedDate.csv");
+        Writer.create(ExcelType.CSV)
+                .addSheet("date", DateRow.class, Collections.singletonList(new DateRow()).iterator())
+                .out(outFile);
+        List<String> lines = Files.readAllLines(outFile.toPath(), StandardCharsets.UTF_8);
+        // 没有dateFormat的日期按toString输出，不能是空
+        Assert.assertEquals("x," + new Date(0) + ",2020-01-02", lines.get(1));
+    }
+
+    public static class NumberRow {
+        @ExcelColumn(header = "float", index = 0)
+        private Float ratio = 0.1f;
+        @ExcelColumn(header = "long", index = 1)
+        private Long min = Long.MIN_VALUE;
+    }
+
+    @Test
+    public void testNumberCellsXlsx() throws Exception {
+        File outFile = new File(OUT_DIR + "/testNumberCells.xlsx");
+        Writer.create()
+                .addSheet("number", NumberRow.class, Collections.singletonList(new NumberRow()).iterator())
+                .out(outFile);
+        try (Workbook workbook = WorkbookFactory.create(outFile)) {
+            Row row = workbook.getSheetAt(0).getRow(1);
+            Assert.assertEquals(0.1, row.getCell(0).getNumericCellValue(), 0); // float按十进制转换，没有二进制误差
+            Assert.assertEquals(String.valueOf(Long.MIN_VALUE), row.getCell(1).getStringCellValue()); // double不能精确表示，按文本
+        }
+    }
+
     @Test
     public void testXls() throws WriterException {
         File outFile = new File(OUT_DIR + "/testXlS.xls");
@@ -57,6 +140,216 @@ public class WriterTest {
                 .out(outFile);
     }
 
+    @Test
+    public void testStreamXlsx() throws WriterException {
+        File outFile = new File(OUT_DIR + "/testStreamXlSX.xlsx");
+        Writer.create()
+                .addSheet("stream", Worker.class, DataGen.genWorkerStream(1000000)) // 100万，内存中只有SXSSF缓冲的行
+                .addSheet("page", Worker.class, 1000, (pageNo, pageSize) ->
+                        pageNo > 100 ? null : DataGen.genWorkerList(pageSize)) // 10万，每次取1000条
+                .out(outFile);
+    }
+
+    @Test
+    public void testTempFileXlsx() throws WriterException {
+        File outFile = new File(OUT_DIR + "/testTempFileXlSX.xlsx");
+        File tempDir = new File(OUT_DIR + "/sxssf-tmp");
+        Writer writer = Writer.create()
+                .tempDir(tempDir)
+                .compressTempFiles(true)
+                .addSheet("stream", Worker.class, DataGen.genWorkerStream(100000));
+        writer.out(outFile);
+        System.out.println("temp bytes: " + writer.tempBytesWritten());
+        Assert.assertTrue(writer.tempBytesWritten() > 0);
+        Assert.assertEquals(0, tempDir.list().length); // 写完临时文件已删除
+    }
+
+    @Test
+    public void testDirectXlsx() throws WriterException {
+        File outFile = new File(OUT_DIR + "/testDirectXlSX.xlsx");
+        Writer.create()
+                .directXml(true)
+                .addSheetBuilder(GridSheet.build().data(DataGen.genWorkerList(1000000))) // 100万，不经过SXSSF直接写xml
+                .out(outFile);
+    }
+
+    public static class QuoteOptions implements Options {
+        @Override
+        public String[] get() {
+            return new String[] {"say \"hi\"", "plain"};
+        }
+    }
+
+    public static class LongOptions implements Options {
+        @Override
+        public String[] get() {
+            String[] options = new String[30]; // 数量不多，但连同逗号超过255个字符
+            for (int i = 0; i < options.length; i++) {
+                options[i] = "option-" + (100 + i);
+            }
+            return options;
+        }
+    }
+
+    public static class DirectRow {
+        @ExcelColumn(header = "名称", index = 0, options = QuoteOptions.class)
+        private String name = "plain";
+        @ExcelColumn(header = "金额", index = 1)
+        private Double amount = 1.5;
+        @ExcelColumn(header = "启用", index = 2)
+        private Boolean active = true;
+        @ExcelColumn(header = "日期", index = 3, dateFormat = "yyyy-MM-dd")
+        private LocalDate day = LocalDate.of(2020, 1, 2);
+        @ExcelColumn(header = "标签", index = 4, options = LongOptions.class)
+        private String tag = "option-100";
+    }
+
+    @Test
+    public void testDirectXlsxRoundTrip() throws Exception {
+        List<DirectRow> rows = Arrays.asList(new DirectRow(), new DirectRow(), new DirectRow(), new DirectRow(), new DirectRow());
+        for (boolean directXml : new boolean[] {true, false}) { // 直接写xml和SXSSF的结果一致
+            File outFile = new File(OUT_DIR + "/testDirectRoundTrip" + directXml + ".xlsx");
+            Writer.create()
+                    .directXml(directXml)
+                    .maxRowsPerSheet(3)
+                    .addSheet("direct", DirectRow.class, rows.iterator())
+                    .out(outFile);
+
+            try (XSSFWorkbook workbook = new XSSFWorkbook(outFile)) {
+                Assert.assertEquals(3, workbook.getNumberOfSheets());
+                Assert.assertEquals("direct", workbook.getSheetName(0));
+                Assert.assertEquals("direct_2", workbook.getSheetName(1)); // 超过3行续写
+                Assert.assertEquals("tl_options", workbook.getSheetName(2));
+                Assert.assertTrue(workbook.isSheetHidden(2));
+
+                XSSFSheet sheet = workbook.getSheetAt(0);
+                Assert.assertEquals(3, sheet.getLastRowNum());
+                Assert.assertEquals(2, workbook.getSheetAt(1).getLastRowNum());
+                Row header = sheet.getRow(0);
+                String[] headers = {"名称", "金额", "启用", "日期", "标签"};
+                for (int i = 0; i < headers.length; i++) {
+                    Assert.assertEquals(headers[i], header.getCell(i).getStringCellValue());
+                }
+
+                Row row = sheet.getRow(1);
+                Assert.assertEquals("plain", row.getCell(0).getStringCellValue());
+                Assert.assertEquals(CellType.NUMERIC, row.getCell(1).getCellType());
+                Assert.assertEquals(1.5, row.getCell(1).getNumericCellValue(), 0);
+                Assert.assertEquals(CellType.BOOLEAN, row.getCell(2).getCellType());
+                Assert.assertTrue(row.getCell(2).getBooleanCellValue());
+                Assert.assertEquals(CellType.NUMERIC, row.getCell(3).getCellType());
+                Assert.assertEquals("yyyy-mm-dd", row.getCell(3).getCellStyle().getDataFormatString()); // 转成excel的格式
+                Assert.assertTrue(DateUtil.isCellDateFormatted(row.getCell(3)));
+                Assert.assertEquals(43832, row.getCell(3).getNumericCellValue(), 0); // 2020-01-02的序列值
+
+                // 引号转义后直接写进公式，超过255个字符的选项放到隐藏sheet中通过名称引用
+                Map<String, String> validations = validations(sheet);
+                Assert.assertEquals(2, validations.size());
+                Assert.assertEquals("\"say \"\"hi\"\",plain\"", validations.get("A2:A4"));
+                Assert.assertEquals("tl_options_0", validations.get("E2:E4"));
+                validations = validations(workbook.getSheetAt(1));
+                Assert.assertEquals(2, validations.size());
+                Assert.assertEquals("\"say \"\"hi\"\",plain\"", validations.get("A2:A3"));
+                Assert.assertEquals("tl_options_0", validations.get("E2:E3"));
+
+                Name name = workbook.getName("tl_options_0");
+                Assert.assertNotNull(name);
+                Assert.assertEquals("tl_options!$A$1:$A$30", name.getRefersToFormula().replace("'", ""));
+                Assert.assertEquals("option-129", workbook.getSheetAt(2).getRow(29).getCell(0).getStringCellValue());
+            }
+        }
+    }
+
+    /**
+     * 校验区域到公式的映射
+     */
+    private static Map<String, String> validations(XSSFSheet sheet) {
+        Map<String, String> validations = new HashMap<>();
+        for (XSSFDataValidation validation : sheet.getDataValidations()) {
+            validations.put(validation.getRegions().getCellRangeAddress(0).formatAsString(),
+                    validation.getValidationConstraint().getFormula1());
+        }
+        return validations;
+    }
+
+    /**
+     * 同样的100万行分别用SXSSF和直接写xml(默认压缩级别、最快压缩级别)写出，比较耗时和文件大小
+     */
+    @Test
+    @Ignore("手动运行的性能对比，不放在单元测试中")
+    public void benchmarkDirectXlsx() throws WriterException {
+        List<Worker> workers = DataGen.genWorkerList(1000000);
+        String[] names = {"sxssf", "direct", "direct-deflate1"};
+        for (int round = 0; round < 2; round++) {
+            for (String name : names) {
+                File outFile = new File(OUT_DIR + "/benchmark-" + name + ".xlsx");
+                long start = System.currentTimeMillis();
+                Writer.create()
+                        .directXml(!"sxssf".equals(name))
+                        .deflateLevel("direct-deflate1".equals(name) ? 1 : -1)
+                        .addSheet(Worker.class, workers.iterator())
+                        .out(outFile);
+                System.out.println(name + ": " + (System.currentTimeMillis() - start) + "ms, " + outFile.length() / 1024 + "KB");
+            }
+        }
+    }
+
+    @Test(expected = WriterException.class)
+    public void testFailingSourceXlsx() throws Exception {
+        OutputStream out = new FileOutputStream(OUT_DIR + "/testFailingSourceXlSX.xlsx");
+        Writer.create()
+                .addSheet("page", Worker.class, 10, (pageNo, pageSize) -> {
+                    if (pageNo == 3) {
+                        throw new IllegalStateException("page " + pageNo + " failed");
+                    }
+                    return DataGen.genWorkerList(pageSize);
+                }) // 数据源中途失败时抛出异常，不能写出不完整的文件
+                .out(out);
+    }
+
+    @Test(expected = WriterException.class)
+    public void testFailingSourceCsv() throws Exception {
+        OutputStream out = new FileOutputStream(OUT_DIR + "/testFailingSource.csv");
+        Writer.create(ExcelType.CSV)
+                .addSheet("page", Worker.class, 10, (pageNo, pageSize) -> {
+                    if (pageNo == 3) {
+                        throw new IllegalStateException("page " + pageNo + " failed");
+                    }
+                    return DataGen.genWorkerList(pageSize);
+                })
+                .out(out);
+    }
+
+    @Test(expected = WriterException.class)
+    public void testFailingSourceDirectXlsx() throws Exception {
+        OutputStream out = new FileOutputStream(OUT_DIR + "/testFailingSourceDirectXlSX.xlsx");
+        Writer.create()
+                .directXml(true)
+                .addSheet(Worker.class, DataGen.genWorkerList(1000).stream().peek(worker -> {
+                    if ("java500".equals(worker.getJobTitle())) {
+                        throw new IllegalStateException("source failed");
+                    }
+                }))
+                .out(out);
+    }
+
+    @Test
+    public void testParallelXlsx() throws WriterException {
+        File outFile = new File(OUT_DIR + "/testParallelXlSX.xlsx");
+        Writer.create()
+                .parallelism(Runtime.getRuntime().availableProcessors())
+                .addSheet(Worker.class, DataGen.genWorkerStream(1000000)) // 多线程转换，单线程按顺序写入
+                .out(outFile);
+    }
+
+    @Test
+    public void testSheetRolloverXls() throws WriterException {
+        File outFile = new File(OUT_DIR + "/testSheetRolloverXlS.xls");
+        Writer.create(ExcelType.XLS)
+                .addSheet("worker", Worker.class, DataGen.genWorkerStream(150000)) // 超过65536行，续写到worker_2、worker_3
+                .out(outFile);
+    }
+
     @Test
     public void testMultiSheetXls() throws WriterException {
         File outFile = new File(OUT_DIR + "/testMultiSheetXlS.xls"); // 6万/2s
@@ -75,6 +368,163 @@ public class WriterTest {
                 .out(outFile);
     }
 
+    @Test
+    public void testGroupedSheetsXlsx() throws WriterException {
+        File outFile = new File(OUT_DIR + "/testGroupedSheetsXlSX.xlsx"); // 100万，按部门分sheet，只遍历一遍
+        Writer.create()
+                .maxOpenGroupSheets(2)
+                .addGroupedSheets(Worker.class, DataGen.genWorkerStream(1000000))
+                .out(outFile);
+    }
+
+    public static class DayRow {
+        @ExcelColumn(header = "day", index = 0, groupBy = true, dateFormat = "yyyy.MM.dd")
+        private LocalDate day;
+        @ExcelColumn(header = "name", index = 1)
+        private String name;
+
+        DayRow(LocalDate day, String name) {
+            this.day = day;
+            this.name = name;
+        }
+    }
+
+    @Test
+    public void testAutoGroupBySheetNames() throws Exception {
+        List<DayRow> rows = Arrays.asList(new DayRow(LocalDate.of(2020, 1, 2), "a"), new DayRow(LocalDate.of(2020, 1, 3), "b"));
+
+        // enableAutoGroupBy的sheet名称仍然是字段的toString
+        File autoFile = new File(OUT_DIR + "/testAutoGroupByXlSX.xlsx");
+        Writer.create().enableAutoGroupBy(true).addSheetBuilder(DayRow.class, rows).out(autoFile);
+        try (Workbook workbook = WorkbookFactory.create(autoFile)) {
+            Assert.assertNotNull(workbook.getSheet("2020-01-02"));
+            Assert.assertNotNull(workbook.getSheet("2020-01-03"));
+        }
+
+        // addGroupedSheets按单元格写出的文本
+        File groupedFile = new File(OUT_DIR + "/testGroupedNamesXlSX.xlsx");
+        Writer.create().addGroupedSheets(DayRow.class, rows.stream()).out(groupedFile);
+        try (Workbook workbook = WorkbookFactory.create(groupedFile)) {
+            Assert.assertNotNull(workbook.getSheet("2020.01.02"));
+        }
+
+        // enableAutoGroupBy时分组字段为null报错，不会并到默认sheet
+        try {
+            Writer.create().enableAutoGroupBy(true)
+                    .addSheetBuilder(DayRow.class, Collections.singletonList(new DayRow(null, "c")))
+                    .out(new ByteArrayOutputStream());
+            Assert.fail();
+        } catch (WriterException e) {
+            Assert.assertTrue(e.getCause() instanceof ConfigurationException);
+        }
+    }
+
+    private static int openFiles() {
+        String[] fds = new File("/proc/self/fd").list();
+        return null == fds ? 0 : fds.length;
+    }
+
+    @Test
+    public void testManyGroupsXlsx() throws Exception {
+        // 1000个分组交替出现，同时打开的临时文件不随分组数增长(gzip压缩时创建sheet就会写临时文件)
+        int groups = 1000;
+        File outFile = new File(OUT_DIR + "/testManyGroupsXlSX.xlsx");
+        int baseline = openFiles();
+        int[] maxOpen = new int[1];
+        Stream<Worker> workers = IntStream.range(0, groups * 3).mapToObj(i -> {
+            maxOpen[0] = Math.max(maxOpen[0], openFiles());
+            return new Worker("name" + i, String.valueOf(i), "java", "dept" + (i % groups), null, null);
+        });
+        Writer.create()
+                .maxOpenGroupSheets(8)
+                .compressTempFiles(true)
+                .addGroupedSheets(Worker.class, workers)
+                .out(outFile);
+        if (baseline > 0) {
+            Assert.assertTrue("open files " + (maxOpen[0] - baseline), maxOpen[0] - baseline < 100);
+        }
+        try (Workbook workbook = WorkbookFactory.create(outFile)) {
+            Assert.assertEquals(groups, workbook.getNumberOfSheets());
+            Sheet sheet = workbook.getSheet("dept7");
+            Assert.assertEquals(3, sheet.getLastRowNum());
+            Assert.assertEquals("name" + (groups * 2 + 7), sheet.getRow(3).getCell(3).getStringCellValue());
+        }
+    }
+
+    @Test(expected = WriterException.class)
+    public void testFailingGroupedSourceXlsx() throws Exception {
+        OutputStream out = new FileOutputStream(OUT_DIR + "/testFailingGroupedSourceXlSX.xlsx");
+        Writer.create()
+                .addGroupedSheets(Worker.class, DataGen.genWorkerList(1000).stream().peek(worker -> {
+                    if ("java500".equals(worker.getJobTitle())) {
+                        throw new IllegalStateException("source failed");
+                    }
+                })) // 分组写出时数据源中途失败也要抛出异常
+                .out(out);
+    }
+
+    @Test
+    public void testStyleRegistryXls() throws Exception {
+        StyleConfig styleConfig = StyleConfig.create(null, null, (workbook, style) -> {
+            style.setFillForegroundColor(IndexedColors.YELLOW.getIndex());
+            style.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+            return style;
+        });
+        int[] styles = new int[2];
+        for (int sheets = 1; sheets <= 2; sheets++) {
+            File outFile = new File(OUT_DIR + "/testStyleRegistryXlS" + sheets + ".xls");
+            Writer writer = Writer.create(ExcelType.XLS);
+            for (int i = 0; i < sheets * 5; i++) { // 每个sheet都按部门分组，样式只创建一份
+                writer.addSheetBuilder(GridSheet.build().sheetName("worker" + i).clazz(Worker.class)
+                        .data(DataGen.genWorkerList(100)).groupBy(true).styleConfig(styleConfig));
+            }
+            writer.out(outFile);
+            try (Workbook workbook = WorkbookFactory.create(outFile)) {
+                styles[sheets - 1] = workbook.getNumCellStyles();
+            }
+        }
+        Assert.assertEquals(styles[0], styles[1]);
+    }
+
+    @Test
+    public void testSharedStyleConsumerXls() throws Exception {
+        // 表头和数据列共用一个consumer，各自在自己的基础样式上修改
+        StyleConsumer<Workbook, CellStyle> yellow = (workbook, style) -> {
+            style.setFillForegroundColor(IndexedColors.YELLOW.getIndex());
+            style.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+            return style;
+        };
+        File outFile = new File(OUT_DIR + "/testSharedStyleConsumerXlS.xls");
+        Writer.create(ExcelType.XLS)
+                .addSheetBuilder(GridSheet.build().sheetName("worker").clazz(Worker.class)
+                        .data(DataGen.genWorkerList(10)).styleConfig(StyleConfig.create(null, yellow, yellow)))
+                .out(outFile);
+        try (Workbook workbook = WorkbookFactory.create(outFile)) {
+            Sheet sheet = workbook.getSheetAt(0);
+            CellStyle header = sheet.getRow(0).getCell(0).getCellStyle();
+            CellStyle cell = sheet.getRow(1).getCell(0).getCellStyle();
+            Assert.assertEquals(IndexedColors.YELLOW.getIndex(), header.getFillForegroundColor());
+            Assert.assertEquals(IndexedColors.YELLOW.getIndex(), cell.getFillForegroundColor());
+            Assert.assertTrue(workbook.getFontAt(header.getFontIndexAsInt()).getBold());
+            Assert.assertFalse(workbook.getFontAt(cell.getFontIndexAsInt()).getBold());
+        }
+
+        // consumer返回null时沿用基础样式，多出来的副本最多留下一个
+        StyleConsumer<Workbook, CellStyle> none = (workbook, style) -> null;
+        File plainFile = new File(OUT_DIR + "/testPlainStyleXlS.xls");
+        Writer.create(ExcelType.XLS)
+                .addSheetBuilder(GridSheet.build().sheetName("worker").clazz(Worker.class).data(DataGen.genWorkerList(10)))
+                .out(plainFile);
+        File noneFile = new File(OUT_DIR + "/testNullStyleConsumerXlS.xls");
+        Writer.create(ExcelType.XLS)
+                .addSheetBuilder(GridSheet.build().sheetName("worker").clazz(Worker.class)
+                        .data(DataGen.genWorkerList(10)).styleConfig(StyleConfig.create(null, none, (workbook, style) -> null)))
+                .out(noneFile);
+        try (Workbook plain = WorkbookFactory.create(plainFile); Workbook nullStyles = WorkbookFactory.create(noneFile)) {
+            Assert.assertTrue(nullStyles.getNumCellStyles() <= plain.getNumCellStyles() + 1);
+        }
+    }
+
     @Test
     public void testExtraInfo() {
         File outFile = new File(OUT_DIR + "/testExtraInfoXlS.xls");